@@ -0,0 +1,133 @@
+package com.play.common.loader.util;
+
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.repeat.policy.SimpleCompletionPolicy;
+
+/**
+ * Chunk completion policy that tunes the commit interval while the step runs. Throughput (rows/sec) is measured
+ * over a window of chunks, the size keeps moving in the same direction while throughput improves and turns around
+ * when it drops, always within [minSize, maxSize]. Chunks whose commit takes longer than maxCommitMillis force the
+ * size down.
+ * <p>
+ * The size in use and the sizes tried are kept in the step ExecutionContext under "adaptiveChunk.size" and
+ * "adaptiveChunk.history". Register the policy as a listener of the same step, and keep it step scoped when the
+ * step runs in several partitions at once.
+ */
+public class AdaptiveCompletionPolicy extends SimpleCompletionPolicy implements ChunkListener, ItemWriteListener<Object>, StepExecutionListener {
+    public static final String SIZE_KEY = "adaptiveChunk.size";
+    public static final String HISTORY_KEY = "adaptiveChunk.history";
+    private static final int WINDOW_CHUNKS = 5;
+    private static final double STEP_FACTOR = 1.5;
+    private static final double MIN_GAIN = 0.02;
+    private static final int MAX_HISTORY = 64;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long maxCommitNanos;
+
+    private StepExecution stepExecution;
+    private final StringBuilder history = new StringBuilder();
+    private int historyEntries;
+    private boolean growing = true;
+    private double lastThroughput;
+
+    private long chunkStart;
+    private long writeEnd;
+    private int chunkItems;
+    private int windowChunks;
+    private long windowItems;
+    private long windowNanos;
+    private long windowCommitNanos;
+
+    public AdaptiveCompletionPolicy(int initialSize, int minSize, int maxSize, long maxCommitMillis) {
+        super(Math.max(minSize, Math.min(maxSize, initialSize)));
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxCommitNanos = maxCommitMillis * 1_000_000L;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        this.stepExecution = stepExecution;
+        if (stepExecution.getExecutionContext().containsKey(SIZE_KEY)) {
+            // restart, continue from the size the previous run converged to
+            setChunkSize(stepExecution.getExecutionContext().getInt(SIZE_KEY));
+        }
+        record();
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        stepExecution.getExecutionContext().putInt(SIZE_KEY, getChunkSize());
+        stepExecution.getExecutionContext().putString(HISTORY_KEY, history.toString());
+        return stepExecution.getExitStatus();
+    }
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        chunkStart = System.nanoTime();
+        writeEnd = 0;
+        chunkItems = 0;
+    }
+
+    @Override
+    public void afterWrite(Chunk<?> items) {
+        chunkItems += items.size();
+        writeEnd = System.nanoTime();
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        long now = System.nanoTime();
+        if (chunkItems == 0) {
+            return;
+        }
+        windowChunks++;
+        windowItems += chunkItems;
+        windowNanos += now - chunkStart;
+        windowCommitNanos += writeEnd > 0 ? now - writeEnd : 0;
+        if (windowChunks < WINDOW_CHUNKS) {
+            return;
+        }
+        adjust(windowItems * 1e9 / windowNanos, windowCommitNanos / windowChunks);
+        windowChunks = 0;
+        windowItems = 0;
+        windowNanos = 0;
+        windowCommitNanos = 0;
+    }
+
+    private void adjust(double throughput, long averageCommitNanos) {
+        if (averageCommitNanos > maxCommitNanos) {
+            growing = false;
+        } else if (lastThroughput > 0 && throughput < lastThroughput * (1 + MIN_GAIN)) {
+            // no real gain from the last move, try the other direction
+            growing = !growing;
+        }
+        lastThroughput = throughput;
+        int current = getChunkSize();
+        int next = growing ? (int) Math.ceil(current * STEP_FACTOR) : (int) (current / STEP_FACTOR);
+        next = Math.max(minSize, Math.min(maxSize, next));
+        if (next != current) {
+            setChunkSize(next);
+            record();
+        }
+    }
+
+    private void record() {
+        if (stepExecution == null) {
+            return;
+        }
+        if (historyEntries < MAX_HISTORY) {
+            history.append(history.length() == 0 ? "" : ",").append(getChunkSize());
+            historyEntries++;
+        }
+        stepExecution.getExecutionContext().putInt(SIZE_KEY, getChunkSize());
+        stepExecution.getExecutionContext().putString(HISTORY_KEY, history.toString());
+    }
+}
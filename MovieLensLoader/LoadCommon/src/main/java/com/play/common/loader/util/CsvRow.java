@@ -0,0 +1,142 @@
+package com.play.common.loader.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * One csv record inside a mapped window of the file. Fields are kept as byte offsets, numbers are parsed
+ * straight from the bytes and strings are only decoded when asked for. Instances are reused from row to row,
+ * so values must be copied out by the mapper.
+ */
+public class CsvRow {
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private ByteBuffer buffer;
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int fieldCount;
+    private byte[] scratch = new byte[256];
+
+    void reset(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.fieldCount = 0;
+    }
+
+    void addField(int start, int end) {
+        if (fieldCount == starts.length) {
+            starts = Arrays.copyOf(starts, fieldCount * 2);
+            ends = Arrays.copyOf(ends, fieldCount * 2);
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        fieldCount++;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    public boolean isEmpty(int index) {
+        checkIndex(index);
+        return starts[index] == ends[index];
+    }
+
+    public long readLong(int index) {
+        checkIndex(index);
+        int pos = starts[index];
+        int end = ends[index];
+        boolean negative = false;
+        if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+            negative = buffer.get(pos) == '-';
+            pos++;
+        }
+        if (pos == end) {
+            throw new NumberFormatException("Not a number: '" + readString(index) + "'");
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            int digit = buffer.get(pos) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not a number: '" + readString(index) + "'");
+            }
+            value = Math.addExact(Math.multiplyExact(value, 10), digit);
+        }
+        return negative ? -value : value;
+    }
+
+    public double readDouble(int index) {
+        checkIndex(index);
+        int pos = starts[index];
+        int end = ends[index];
+        boolean negative = false;
+        if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+            negative = buffer.get(pos) == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        boolean digits = false;
+        for (; pos < end; pos++) {
+            byte b = buffer.get(pos);
+            if (b == '.' && !fraction) {
+                fraction = true;
+            } else if (b >= '0' && b <= '9' && mantissa < MAX_EXACT_MANTISSA / 10) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits = true;
+                if (fraction) {
+                    fractionDigits++;
+                }
+            } else {
+                // exponents, very long values and anything unusual go through the jdk parser
+                return Double.parseDouble(readString(index));
+            }
+        }
+        if (!digits || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(readString(index));
+        }
+        // mantissa and power of ten are both exact doubles, so the division is correctly rounded
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Decodes the field as UTF-8, removing the enclosing quotes and collapsing doubled quotes of a quoted field.
+     */
+    public String readString(int index) {
+        checkIndex(index);
+        int start = starts[index];
+        int end = ends[index];
+        int length = end - start;
+        if (length >= 2 && buffer.get(start) == '"' && buffer.get(end - 1) == '"') {
+            ensureScratch(length);
+            int out = 0;
+            for (int pos = start + 1; pos < end - 1; pos++) {
+                byte b = buffer.get(pos);
+                scratch[out++] = b;
+                if (b == '"' && pos + 1 < end - 1 && buffer.get(pos + 1) == '"') {
+                    pos++;
+                }
+            }
+            return new String(scratch, 0, out, StandardCharsets.UTF_8);
+        }
+        ensureScratch(length);
+        buffer.get(start, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void ensureScratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index >= fieldCount) {
+            throw new IllegalArgumentException("Field " + index + " does not exist, the row has " + fieldCount + " fields");
+        }
+    }
+}
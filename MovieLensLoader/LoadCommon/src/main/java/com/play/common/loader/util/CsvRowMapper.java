@@ -0,0 +1,8 @@
+package com.play.common.loader.util;
+
+/**
+ * Maps one {@link CsvRow} read by {@link MappedCsvItemReader} to an item.
+ */
+public interface CsvRowMapper<T> {
+    T mapRow(CsvRow row) throws Exception;
+}
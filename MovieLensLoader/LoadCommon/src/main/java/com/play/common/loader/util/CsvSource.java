@@ -0,0 +1,235 @@
+package com.play.common.loader.util;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Where a loader reads its csv from. The location is either "classpath:data/x.csv" or a filesystem path, with
+ * an optional "file:" prefix, whose file name may be a glob such as "/data/ml-*.zip". When a glob matches several
+ * files the last one in name order is used, so the newest dataset version wins.
+ * <p>
+ * Three kinds of files are read:
+ * <ul>
+ *     <li>a plain csv, memory mapped and split into byte ranges by the readers</li>
+ *     <li>a ".gz" csv, decompressed on the fly</li>
+ *     <li>a ".zip" archive such as the official ml-25m.zip, the entry named entryName, "ratings.csv" for example,
+ *     in any folder of the archive, is decompressed on the fly</li>
+ * </ul>
+ * Compressed sources are never extracted to disk, they can only be read as one stream from the start. Offsets
+ * in a stream are offsets in the decompressed csv. So is a plain csv that is not a file on disk, such as the
+ * classpath:data files of a loader run from its jar or through LoadPipeline.
+ */
+public class CsvSource {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Resource resource;
+    private final String entryName;
+    private final boolean gzip;
+    private final boolean zip;
+    private final boolean file;
+
+    private CsvSource(Resource resource, String entryName) {
+        String fileName = resource.getFilename() == null ? "" : resource.getFilename().toLowerCase();
+        this.resource = resource;
+        this.entryName = entryName;
+        this.gzip = fileName.endsWith(".gz");
+        this.zip = fileName.endsWith(".zip");
+        this.file = resource.isFile();
+    }
+
+    public static CsvSource of(Resource resource) {
+        return new CsvSource(resource, null);
+    }
+
+    public static CsvSource resolve(String location, String entryName) {
+        if (location.startsWith("classpath:")) {
+            return new CsvSource(new ClassPathResource(location.substring("classpath:".length())), entryName);
+        }
+        Path path = Paths.get(location.startsWith("file:") ? location.substring("file:".length()) : location);
+        String glob = path.getFileName().toString();
+        if (glob.indexOf('*') < 0 && glob.indexOf('?') < 0 && glob.indexOf('[') < 0 && glob.indexOf('{') < 0) {
+            return new CsvSource(new FileSystemResource(path), entryName);
+        }
+        Path directory = path.toAbsolutePath().getParent();
+        PathMatcher matcher = directory.getFileSystem().getPathMatcher("glob:" + glob);
+        List<Path> matches = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file) && matcher.matches(file.getFileName())) {
+                    matches.add(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to list " + directory, e);
+        }
+        if (matches.isEmpty()) {
+            throw new IllegalArgumentException("No file matches " + location);
+        }
+        Collections.sort(matches);
+        Path selected = matches.get(matches.size() - 1);
+        if (matches.size() > 1) {
+            System.out.println(String.format("[CsvSource] %s files match %s, reading %s", matches.size(), location, selected));
+        }
+        return new CsvSource(new FileSystemResource(selected), entryName);
+    }
+
+    public Resource getResource() {
+        return resource;
+    }
+
+    /**
+     * True for an uncompressed csv file on disk, which can be mapped and read from any offset.
+     */
+    public boolean isPlainFile() {
+        return !gzip && !zip && file;
+    }
+
+    public String getDescription() {
+        return zip ? resource.getDescription() + " entry " + entryName : resource.getDescription();
+    }
+
+    /**
+     * Opens the decompressed csv, buffered. Only for the sources read as a stream, plain files are mapped.
+     */
+    public Input open() throws IOException {
+        if (isPlainFile()) {
+            throw new IllegalStateException(resource.getDescription() + " is a plain file, map it instead");
+        }
+        if (gzip) {
+            Counting compressed = new Counting(new BufferedInputStream(resource.getInputStream(), BUFFER_SIZE));
+            return new Input(new GZIPInputStream(compressed, BUFFER_SIZE), compressed, resource.contentLength());
+        }
+        if (zip && !file) {
+            // no random access to the archive directory, the entries are read in order up to the one wanted
+            ZipInputStream archive = new ZipInputStream(new BufferedInputStream(resource.getInputStream(), BUFFER_SIZE));
+            try {
+                ZipEntry entry = findEntry(archive);
+                Counting decompressed = new Counting(new BufferedInputStream(archive, BUFFER_SIZE));
+                return new Input(decompressed, decompressed, entry.getSize());
+            } catch (IOException | RuntimeException e) {
+                archive.close();
+                throw e;
+            }
+        }
+        if (zip) {
+            ZipFile zipFile = new ZipFile(resource.getFile());
+            try {
+                ZipEntry entry = findEntry(zipFile);
+                Counting decompressed = new Counting(new BufferedInputStream(zipFile.getInputStream(entry), BUFFER_SIZE)) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            zipFile.close();
+                        }
+                    }
+                };
+                return new Input(decompressed, decompressed, entry.getSize());
+            } catch (IOException | RuntimeException e) {
+                zipFile.close();
+                throw e;
+            }
+        }
+        Counting plain = new Counting(new BufferedInputStream(resource.getInputStream(), BUFFER_SIZE));
+        return new Input(plain, plain, resource.contentLength());
+    }
+
+    private ZipEntry findEntry(ZipFile zipFile) throws FileNotFoundException {
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory() && (entry.getName().equals(entryName) || entry.getName().endsWith("/" + entryName))) {
+                return entry;
+            }
+        }
+        throw new FileNotFoundException("No " + entryName + " entry in " + resource.getDescription());
+    }
+
+    private ZipEntry findEntry(ZipInputStream archive) throws IOException {
+        ZipEntry entry;
+        while ((entry = archive.getNextEntry()) != null) {
+            if (!entry.isDirectory() && (entry.getName().equals(entryName) || entry.getName().endsWith("/" + entryName))) {
+                return entry;
+            }
+        }
+        throw new FileNotFoundException("No " + entryName + " entry in " + resource.getDescription());
+    }
+
+    /**
+     * Decompressed csv stream. It also tells how far the read went, from the compressed bytes consumed for a
+     * ".gz" file or the decompressed bytes of the entry for a ".zip", whose size is in the archive directory, or
+     * from the bytes read of a plain csv.
+     */
+    public static class Input extends FilterInputStream {
+        private final Counting counted;
+        private final long total;
+
+        Input(InputStream in, Counting counted, long total) {
+            super(in);
+            this.counted = counted;
+            this.total = total;
+        }
+
+        /**
+         * Share of the source read, from 0 to 1, or -1 when the size is unknown.
+         */
+        public double getProgress() {
+            return total > 0 ? Math.min(1.0, counted.count / (double) total) : -1;
+        }
+    }
+
+    private static class Counting extends FilterInputStream {
+        private long count;
+
+        Counting(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.play.common.loader.util;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * Version stamp of the data written by the loaders, one DatasetVersion row per loader holding the number of loads it
+ * completed and the time of the last one. {@link #bump()} runs as the last step of a load, once every row of it is
+ * committed; the service polls the table, refreshes what it derives from the tables of that loader and drops its
+ * cached results, and the sum of the versions is the ETag of its responses. Each loader only updates its own row, so
+ * the rating and tag flows of the pipeline never update the same one.
+ */
+public class DatasetVersion {
+    private static final String CREATE_SQL = "CREATE TABLE IF NOT EXISTS DatasetVersion "
+            + "(loader VARCHAR(255) NOT NULL PRIMARY KEY, version BIGINT NOT NULL, changed_at TIMESTAMP NOT NULL)";
+    private static final String BUMP_SQL = "MERGE INTO DatasetVersion (loader, version, changed_at) KEY (loader) "
+            + "SELECT ?, COALESCE(MAX(version), 0) + 1, CURRENT_TIMESTAMP FROM DatasetVersion WHERE loader = ?";
+    private static final String VERSION_SQL = "SELECT version FROM DatasetVersion WHERE loader = ?";
+
+    private final String loader;
+    private final JdbcTemplate jdbcTemplate;
+
+    public DatasetVersion(String loader, DataSource dataSource) {
+        this.loader = loader;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * Counts one more load of this loader, returns its new version.
+     */
+    public long bump() {
+        jdbcTemplate.execute(CREATE_SQL);
+        jdbcTemplate.update(BUMP_SQL, loader, loader);
+        Long version = jdbcTemplate.queryForObject(VERSION_SQL, Long.class, loader);
+        System.out.println(String.format("[%s] DatasetVersion %s", loader, version));
+        return version;
+    }
+}
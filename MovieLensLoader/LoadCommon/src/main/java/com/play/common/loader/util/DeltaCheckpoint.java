@@ -0,0 +1,143 @@
+package com.play.common.loader.util;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+/**
+ * Byte offset checkpoint of an incremental load of an append only csv file.
+ * <p>
+ * {@link #open(JobExecution)} looks up where the last completed execution of the job stopped and puts the range of
+ * new, complete lines into the job ExecutionContext as "[name].startOffset" / "[name].endOffset", for the readers
+ * to bind. {@link #close(JobExecution, String)} records "[name].offset" and "[name].lineNumber" once the load step
+ * is done, so the next run resumes there. A line still being written at the end of the file is left for the next
+ * run, and a file shorter than the checkpoint was replaced rather than appended to, so it is read from the start.
+ * Only a plain csv file on disk can be checkpointed, a compressed or packaged {@link CsvSource} would have to be read
+ * to its end.
+ */
+public class DeltaCheckpoint {
+    private static final int PAGE_SIZE = 100;
+
+    private final String name;
+    private final CsvSource source;
+    private final int headerLines;
+    private final JobExplorer jobExplorer;
+
+    public DeltaCheckpoint(String name, CsvSource source, int headerLines, JobExplorer jobExplorer) {
+        this.name = name;
+        this.source = source;
+        this.headerLines = headerLines;
+        this.jobExplorer = jobExplorer;
+    }
+
+    public String startOffsetKey() {
+        return name + ".startOffset";
+    }
+
+    public String endOffsetKey() {
+        return name + ".endOffset";
+    }
+
+    public String offsetKey() {
+        return name + ".offset";
+    }
+
+    public String lineNumberKey() {
+        return name + ".lineNumber";
+    }
+
+    private String startLineKey() {
+        return name + ".startLine";
+    }
+
+    public void open(JobExecution jobExecution) throws IOException {
+        long offset = 0;
+        long lineNumber = 0;
+        if (!source.isPlainFile()) {
+            throw new IllegalStateException("Incremental loads need a plain csv file on disk, " + source.getDescription() + " is compressed or packaged");
+        }
+        ExecutionContext last = lastCheckpoint(jobExecution);
+        try (RandomAccessFile file = new RandomAccessFile(source.getResource().getFile(), "r")) {
+            long length = file.length();
+            if (last != null) {
+                offset = last.getLong(offsetKey());
+                lineNumber = last.getLong(lineNumberKey());
+                if (offset > length) {
+                    System.out.println(String.format("[Checkpoint] %s is shorter than the %s checkpoint at offset %s, loading it again from the start",
+                            source.getDescription(), name, offset));
+                    offset = 0;
+                    lineNumber = 0;
+                }
+            }
+            long end = Math.max(offset, lastLineEnd(file, offset, length));
+            ExecutionContext context = jobExecution.getExecutionContext();
+            context.putLong(startOffsetKey(), offset);
+            context.putLong(endOffsetKey(), end);
+            context.putLong(startLineKey(), lineNumber);
+            System.out.println(String.format("[Checkpoint] %s resumes at offset %s, line %s, %s new bytes",
+                    name, offset, lineNumber, end - offset));
+        }
+    }
+
+    public void close(JobExecution jobExecution, String loadStepName) {
+        ExecutionContext context = jobExecution.getExecutionContext();
+        long lines = (context.getLong(startOffsetKey()) == 0 && context.getLong(endOffsetKey()) > 0) ? headerLines : 0;
+        for (StepExecution stepExecution : jobExecution.getStepExecutions()) {
+            if (stepExecution.getStepName().equals(loadStepName)) {
+                lines += stepExecution.getReadCount() + stepExecution.getReadSkipCount();
+            }
+        }
+        context.putLong(offsetKey(), context.getLong(endOffsetKey()));
+        context.putLong(lineNumberKey(), context.getLong(startLineKey()) + lines);
+        System.out.println(String.format("[Checkpoint] %s stopped at offset %s, line %s",
+                name, context.getLong(offsetKey()), context.getLong(lineNumberKey())));
+    }
+
+    // context of the newest completed execution of this job holding a checkpoint, or null
+    private ExecutionContext lastCheckpoint(JobExecution current) {
+        String jobName = current.getJobInstance().getJobName();
+        for (int start = 0; ; start += PAGE_SIZE) {
+            List<JobInstance> instances = jobExplorer.getJobInstances(jobName, start, PAGE_SIZE);
+            if (instances.isEmpty()) {
+                return null;
+            }
+            for (JobInstance instance : instances) {
+                JobExecution last = null;
+                for (JobExecution execution : jobExplorer.getJobExecutions(instance)) {
+                    if (execution.getStatus() == BatchStatus.COMPLETED && execution.getExecutionContext().containsKey(offsetKey())
+                            && (last == null || execution.getId() > last.getId())) {
+                        last = execution;
+                    }
+                }
+                if (last != null) {
+                    return last.getExecutionContext();
+                }
+            }
+        }
+    }
+
+    // offset just after the last '\n' in [from, length), or from when there is none
+    private static long lastLineEnd(RandomAccessFile file, long from, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        long end = length;
+        while (end > from) {
+            int size = (int) Math.min(buffer.length, end - from);
+            file.seek(end - size);
+            file.readFully(buffer, 0, size);
+            for (int i = size - 1; i >= 0; i--) {
+                if (buffer[i] == '\n') {
+                    return end - size + i + 1;
+                }
+            }
+            end -= size;
+        }
+        return from;
+    }
+}
@@ -0,0 +1,22 @@
+package com.play.common.loader.util;
+
+import java.sql.Timestamp;
+
+/**
+ * The MovieLens csv files hold their timestamps as epoch seconds. They become a {@link Timestamp} here when a row is
+ * read and go back to epoch seconds here when the compact layout stores them as an INT or a rejected row is written,
+ * so the wide and the compact layouts hold the same instant.
+ */
+public final class EpochSeconds {
+
+    private EpochSeconds() {
+    }
+
+    public static Timestamp toTimestamp(long epochSeconds) {
+        return new Timestamp(epochSeconds * 1000L);
+    }
+
+    public static long of(Timestamp timestamp) {
+        return Math.floorDiv(timestamp.getTime(), 1000L);
+    }
+}
@@ -0,0 +1,116 @@
+package com.play.common.loader.util;
+
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Splits a csv file into byte ranges, one per partition. Every boundary is moved forward to the start
+ * of the next line so no row is ever cut in half, and the header line is left out of the first range.
+ * <p>
+ * A narrower [startOffset, endOffset) range of the file can be split instead, the header is only skipped when
+ * the range starts at the beginning of the file.
+ * <p>
+ * A {@link CsvSource} that is compressed or not a file on disk can only be read from the start, it is loaded as one
+ * partition.
+ */
+public class LineAlignedFilePartitioner implements Partitioner {
+    public static final String START_OFFSET = "startOffset";
+    public static final String END_OFFSET = "endOffset";
+
+    private final CsvSource source;
+    private final int linesToSkip;
+    private final long startOffset;
+    private final long endOffset;
+
+    public LineAlignedFilePartitioner(Resource resource, int linesToSkip) {
+        this(resource, linesToSkip, 0, Long.MAX_VALUE);
+    }
+
+    public LineAlignedFilePartitioner(Resource resource, int linesToSkip, long startOffset, long endOffset) {
+        this(CsvSource.of(resource), linesToSkip, startOffset, endOffset);
+    }
+
+    public LineAlignedFilePartitioner(CsvSource source, int linesToSkip, long startOffset, long endOffset) {
+        this.source = source;
+        this.linesToSkip = linesToSkip;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        Map<String, ExecutionContext> partitions = new LinkedHashMap<>();
+        if (!source.isPlainFile()) {
+            System.out.println(String.format("[Partitioner] %s is read as a stream, loading it as one partition", source.getDescription()));
+            ExecutionContext context = new ExecutionContext();
+            context.putLong(START_OFFSET, startOffset == 0 ? headerLength() : startOffset);
+            context.putLong(END_OFFSET, endOffset);
+            partitions.put("partition0", context);
+            return partitions;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(source.getResource().getFile(), "r")) {
+            long length = Math.min(endOffset, file.length());
+            long start = startOffset;
+            for (int i = 0; startOffset == 0 && i < linesToSkip; i++) {
+                start = nextLineStart(file, start);
+            }
+            long chunk = Math.max(1, (length - start) / Math.max(1, gridSize));
+            int index = 0;
+            while (start < length) {
+                long end = (index == gridSize - 1) ? length : Math.min(length, nextLineStart(file, Math.min(length, start + chunk) - 1));
+                ExecutionContext context = new ExecutionContext();
+                context.putLong(START_OFFSET, start);
+                context.putLong(END_OFFSET, end);
+                partitions.put("partition" + index, context);
+                start = end;
+                index++;
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Unable to partition " + source.getDescription(), e);
+        }
+        return partitions;
+    }
+
+    // length in bytes of the first linesToSkip lines of a streamed source
+    private long headerLength() {
+        long length = 0;
+        try (InputStream input = source.open()) {
+            int lines = 0;
+            int b;
+            while (lines < linesToSkip && (b = input.read()) >= 0) {
+                length++;
+                if (b == '\n') {
+                    lines++;
+                }
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Unable to read the header of " + source.getDescription(), e);
+        }
+        return length;
+    }
+
+    // returns the offset just after the first '\n' found at or after position
+    private static long nextLineStart(RandomAccessFile file, long position) throws IOException {
+        file.seek(position);
+        byte[] buffer = new byte[8192];
+        long offset = position;
+        int read;
+        while ((read = file.read(buffer)) > 0) {
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,174 @@
+package com.play.common.loader.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.item.Chunk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of a loading step, published as Micrometer meters tagged with the loader and step name:
+ * <ul>
+ *     <li>"loader.rows.read", "loader.rows.written", counters, and "loader.rows.per.second", a gauge</li>
+ *     <li>"loader.chunk.parse", "loader.chunk.write", "loader.chunk.commit", timers of the three phases of a chunk:
+ *     reading and mapping the rows, the batch insert, and the commit</li>
+ *     <li>"loader.read.errors", rows the reader failed on</li>
+ *     <li>"loader.rows.skipped", rows a fault tolerant step skipped, and "loader.rows.filtered", rows a processor
+ *     filtered out, like the ones of an unknown movie</li>
+ * </ul>
+ * Every progressSeconds a progress line is printed with the share of the file's byte range, or of the streamed
+ * source, already read and the time left at the current speed, and a summary once the step is done. Nothing is
+ * done per row besides a counter increment. The registry is the one of the actuator, see the management.* properties
+ * of the loaders. Keep it step scoped, with the step scoped reader, when the step runs in several partitions.
+ */
+public class LoadMetricsListener implements StepExecutionListener, ChunkListener, ItemReadListener<Object>, ItemWriteListener<Object> {
+    private final String loader;
+    private final MappedCsvItemReader<?> reader;
+    private final long progressNanos;
+    private final MeterRegistry registry;
+
+    private String stepName;
+    private Tags tags;
+    private Counter rowsRead;
+    private Counter rowsWritten;
+    private Counter readErrors;
+    private Counter rowsSkipped;
+    private Counter rowsFiltered;
+    private Timer parseTimer;
+    private Timer writeTimer;
+    private Timer commitTimer;
+    private final AtomicLong rowsPerSecond = new AtomicLong();
+
+    private long stepStart;
+    private long chunkStart;
+    private long writeStart;
+    private long writeEnd;
+    private long read;
+    private long written;
+    private long parseNanos;
+    private long writeNanos;
+    private long commitNanos;
+    private long lastReport;
+    private long lastReportWritten;
+    private long skipped;
+    private long filtered;
+
+    public LoadMetricsListener(String loader, MappedCsvItemReader<?> reader, long progressSeconds, MeterRegistry registry) {
+        this.loader = loader;
+        this.reader = reader;
+        this.progressNanos = TimeUnit.SECONDS.toNanos(progressSeconds);
+        this.registry = registry;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        stepName = stepExecution.getStepName();
+        tags = Tags.of("loader", loader, "step", stepName);
+        rowsRead = registry.counter("loader.rows.read", tags);
+        rowsWritten = registry.counter("loader.rows.written", tags);
+        readErrors = registry.counter("loader.read.errors", tags);
+        rowsSkipped = registry.counter("loader.rows.skipped", tags);
+        rowsFiltered = registry.counter("loader.rows.filtered", tags);
+        parseTimer = registry.timer("loader.chunk.parse", tags);
+        writeTimer = registry.timer("loader.chunk.write", tags);
+        commitTimer = registry.timer("loader.chunk.commit", tags);
+        Gauge.builder("loader.rows.per.second", rowsPerSecond, AtomicLong::get).tags(tags).register(registry);
+        stepStart = System.nanoTime();
+        lastReport = stepStart;
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        long nanos = Math.max(1, System.nanoTime() - stepStart);
+        long phases = Math.max(1, parseNanos + writeNanos + commitNanos);
+        rowsPerSecond.set(written * 1_000_000_000L / nanos);
+        countSkippedAndFiltered(stepExecution);
+        System.out.println(String.format("[%s] %s done, %s rows in %s ms, %s rows/s, parse %s%% write %s%% commit %s%%, %s skipped, %s filtered",
+                loader, stepName, written, TimeUnit.NANOSECONDS.toMillis(nanos), rowsPerSecond.get(),
+                parseNanos * 100 / phases, writeNanos * 100 / phases, commitNanos * 100 / phases, skipped, filtered));
+        return null;
+    }
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        chunkStart = System.nanoTime();
+        writeStart = 0;
+        writeEnd = 0;
+    }
+
+    @Override
+    public void afterRead(Object item) {
+        read++;
+    }
+
+    @Override
+    public void onReadError(Exception ex) {
+        readErrors.increment();
+    }
+
+    @Override
+    public void beforeWrite(Chunk<?> items) {
+        writeStart = System.nanoTime();
+        long parse = writeStart - chunkStart;
+        parseNanos += parse;
+        parseTimer.record(parse, TimeUnit.NANOSECONDS);
+        rowsRead.increment(read);
+        read = 0;
+    }
+
+    @Override
+    public void afterWrite(Chunk<?> items) {
+        writeEnd = System.nanoTime();
+        long write = writeEnd - writeStart;
+        writeNanos += write;
+        writeTimer.record(write, TimeUnit.NANOSECONDS);
+        written += items.size();
+        rowsWritten.increment(items.size());
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        long now = System.nanoTime();
+        if (writeEnd > 0) {
+            commitNanos += now - writeEnd;
+            commitTimer.record(now - writeEnd, TimeUnit.NANOSECONDS);
+        }
+        countSkippedAndFiltered(context.getStepContext().getStepExecution());
+        if (now - lastReport >= progressNanos) {
+            report(now);
+        }
+    }
+
+    // the step execution holds the totals, the counters get what was added since the last chunk
+    private void countSkippedAndFiltered(StepExecution stepExecution) {
+        long skipCount = stepExecution.getSkipCount();
+        long filterCount = stepExecution.getFilterCount();
+        rowsSkipped.increment(skipCount - skipped);
+        rowsFiltered.increment(filterCount - filtered);
+        skipped = skipCount;
+        filtered = filterCount;
+    }
+
+    private void report(long now) {
+        rowsPerSecond.set((written - lastReportWritten) * 1_000_000_000L / Math.max(1, now - lastReport));
+        lastReport = now;
+        lastReportWritten = written;
+        double done = reader.getProgress();
+        long phases = Math.max(1, parseNanos + writeNanos + commitNanos);
+        String eta = done > 0 ? (long) ((now - stepStart) / 1e9 * (1 - done) / done) + "s" : "?";
+        System.out.println(String.format("[%s] %s %s, %s rows, %s rows/s, parse %s%% write %s%% commit %s%%, ETA %s",
+                loader, stepName, done >= 0 ? String.format("%.1f%%", done * 100) : "?%", written, rowsPerSecond.get(),
+                parseNanos * 100 / phases, writeNanos * 100 / phases, commitNanos * 100 / phases, eta));
+    }
+}
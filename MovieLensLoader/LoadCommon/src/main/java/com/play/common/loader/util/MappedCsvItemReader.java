@@ -0,0 +1,267 @@
+package com.play.common.loader.util;
+
+import org.springframework.batch.item.file.FlatFileParseException;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a csv file through a read only memory mapping instead of building a String line and a FieldSet per row.
+ * Records are split on the mapped bytes following RFC-4180, so quoted fields may hold commas, doubled quotes and
+ * line breaks. The file is mapped in windows, which keeps files larger than 2GB readable.
+ * <p>
+ * Only records starting inside [startOffset, endOffset) are read, which lets the partitioned steps hand one
+ * reader per byte range from {@link LineAlignedFilePartitioner}.
+ * <p>
+ * A compressed {@link CsvSource}, or one that is not a file on disk, cannot be mapped, its decompressed bytes are
+ * read instead into a heap window of the same layout, refilled as the records are split. The range then starts after
+ * skipping startOffset bytes.
+ */
+public class MappedCsvItemReader<T> extends AbstractItemCountingItemStreamItemReader<T> {
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+    private static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+
+    private final CsvSource source;
+    private final long startOffset;
+    private final long endOffset;
+    private final CsvRowMapper<T> rowMapper;
+    private final CsvRow row = new CsvRow();
+    private int linesToSkip;
+    private long windowSize = WINDOW_SIZE;
+    private int streamWindowSize = STREAM_WINDOW_SIZE;
+
+    private FileChannel channel;
+    private CsvSource.Input input;
+    private ByteBuffer window;
+    private long windowOffset;
+    private long fileSize;
+    private long limit;
+    private long position;
+    private int lineNumber;
+
+    public MappedCsvItemReader(Resource resource, CsvRowMapper<T> rowMapper) {
+        this(CsvSource.of(resource), 0, Long.MAX_VALUE, rowMapper);
+    }
+
+    public MappedCsvItemReader(Resource resource, long startOffset, long endOffset, CsvRowMapper<T> rowMapper) {
+        this(CsvSource.of(resource), startOffset, endOffset, rowMapper);
+    }
+
+    public MappedCsvItemReader(CsvSource source, CsvRowMapper<T> rowMapper) {
+        this(source, 0, Long.MAX_VALUE, rowMapper);
+    }
+
+    public MappedCsvItemReader(CsvSource source, long startOffset, long endOffset, CsvRowMapper<T> rowMapper) {
+        this.source = source;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.rowMapper = rowMapper;
+    }
+
+    public void setLinesToSkip(int linesToSkip) {
+        this.linesToSkip = linesToSkip;
+    }
+
+    // smaller windows for the tests, so that records run over their end
+    void setWindowSizes(long windowSize, int streamWindowSize) {
+        this.windowSize = windowSize;
+        this.streamWindowSize = streamWindowSize;
+    }
+
+    /**
+     * First byte of the range read, for progress reporting.
+     */
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * End of the range read once the reader is open, the end of the file when the range went past it. Unknown,
+     * Long.MAX_VALUE, for a streamed source until the end of the stream is reached.
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * Byte offset of the next record, moves from {@link #getStartOffset()} to {@link #getLimit()} while reading.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Share of the range already read, from 0 to 1, or -1 when it is unknown. For a streamed source it is the
+     * share of the source read, see {@link CsvSource.Input#getProgress()}.
+     */
+    public double getProgress() {
+        if (input != null) {
+            return input.getProgress();
+        }
+        long total = limit - startOffset;
+        return total > 0 ? Math.min(1.0, (position - startOffset) / (double) total) : 1.0;
+    }
+
+    @Override
+    protected void doOpen() throws Exception {
+        lineNumber = 0;
+        window = null;
+        if (source.isPlainFile()) {
+            channel = FileChannel.open(source.getResource().getFile().toPath(), StandardOpenOption.READ);
+            fileSize = channel.size();
+        } else {
+            // the size of a stream is only known once its end is reached
+            input = source.open();
+            fileSize = Long.MAX_VALUE;
+            input.skipNBytes(startOffset);
+        }
+        limit = Math.min(endOffset, fileSize);
+        position = startOffset;
+        windowOffset = startOffset;
+        skipRecords(linesToSkip);
+    }
+
+    @Override
+    protected T doRead() throws Exception {
+        if (!nextRecord()) {
+            return null;
+        }
+        try {
+            return rowMapper.mapRow(row);
+        } catch (Exception e) {
+            throw new FlatFileParseException("Parsing error at line: " + lineNumber + " in resource=["
+                    + source.getDescription() + "]", e, currentLine(), lineNumber);
+        }
+    }
+
+    @Override
+    protected void jumpToItem(int itemIndex) throws Exception {
+        // on restart, skip already processed records without mapping them
+        skipRecords(itemIndex);
+    }
+
+    @Override
+    protected void doClose() throws Exception {
+        window = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (input != null) {
+            input.close();
+            input = null;
+        }
+    }
+
+    private boolean nextRecord() throws IOException {
+        if (position >= limit) {
+            return false;
+        }
+        if (window == null || position >= windowOffset + window.limit()) {
+            map(position);
+            if (position >= windowOffset + window.limit()) {
+                // end of a stream
+                return false;
+            }
+        }
+        while (!splitRecord()) {
+            if (position == windowOffset) {
+                throw new IOException("Record at offset " + position + " is larger than the mapping window");
+            }
+            map(position);
+        }
+        lineNumber++;
+        return true;
+    }
+
+    private void skipRecords(int count) throws IOException {
+        int skipped = 0;
+        while (skipped < count && nextRecord()) {
+            skipped++;
+        }
+    }
+
+    /**
+     * Splits the record at the current position into fields. Returns false when the record runs past the end of
+     * the mapped window, in which case the window has to be moved and the record split again.
+     */
+    private boolean splitRecord() {
+        row.reset(window);
+        int pos = (int) (position - windowOffset);
+        int end = window.limit();
+        int fieldStart = pos;
+        boolean quoted = false;
+        while (pos < end) {
+            byte b = window.get(pos);
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (!quoted) {
+                if (b == ',') {
+                    row.addField(fieldStart, pos);
+                    fieldStart = pos + 1;
+                } else if (b == '\n') {
+                    row.addField(fieldStart, trimCarriageReturn(fieldStart, pos));
+                    position = windowOffset + pos + 1;
+                    return true;
+                }
+            }
+            pos++;
+        }
+        if (windowOffset + end < fileSize) {
+            return false;
+        }
+        row.addField(fieldStart, trimCarriageReturn(fieldStart, end));
+        position = windowOffset + end;
+        return true;
+    }
+
+    private int trimCarriageReturn(int fieldStart, int fieldEnd) {
+        return (fieldEnd > fieldStart && window.get(fieldEnd - 1) == '\r') ? fieldEnd - 1 : fieldEnd;
+    }
+
+    private void map(long offset) throws IOException {
+        if (input != null) {
+            fill(offset);
+            return;
+        }
+        windowOffset = offset;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(windowSize, fileSize - offset));
+    }
+
+    // moves the unread bytes from offset to the front of the stream window and reads the stream behind them
+    private void fill(long offset) throws IOException {
+        if (window == null) {
+            window = ByteBuffer.allocate(streamWindowSize);
+            window.limit(0);
+        }
+        byte[] bytes = window.array();
+        int kept = (int) (windowOffset + window.limit() - offset);
+        System.arraycopy(bytes, (int) (offset - windowOffset), bytes, 0, kept);
+        int size = kept;
+        int read = 0;
+        while (size < bytes.length && (read = input.read(bytes, size, bytes.length - size)) >= 0) {
+            size += read;
+        }
+        windowOffset = offset;
+        window.limit(size);
+        if (read < 0) {
+            fileSize = windowOffset + size;
+            limit = Math.min(endOffset, fileSize);
+        }
+    }
+
+    private String currentLine() {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < row.getFieldCount(); i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(row.readString(i));
+        }
+        return line.toString();
+    }
+}
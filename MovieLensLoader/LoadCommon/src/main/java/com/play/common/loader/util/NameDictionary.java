@@ -0,0 +1,93 @@
+package com.play.common.loader.util;
+
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary of names to integer ids, built while a loader reads its rows and stored in a table of (id, name), so
+ * the rows of the loader only keep the id. Both directions of the mapping live in memory.
+ * <p>
+ * The dictionary is read back from its table before the step, so ids stay stable across runs, and the names added
+ * by a chunk are written by {@link #flush()} in one batch, inside the chunk transaction. They are only forgotten
+ * once the chunk committed, a rolled back chunk writes them again. Register it as a listener of the loading step.
+ */
+public class NameDictionary implements StepExecutionListener, ChunkListener {
+    private final JdbcTemplate jdbcTemplate;
+    private final String selectSql;
+    private final String mergeSql;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private int pendingFrom;
+
+    public NameDictionary(DataSource dataSource, String table, String idColumn, String nameColumn) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.selectSql = String.format("SELECT %s, %s FROM %s ORDER BY %s", idColumn, nameColumn, table, idColumn);
+        this.mergeSql = String.format("MERGE INTO %s (%s, %s) KEY (%s) VALUES (?,?)", table, idColumn, nameColumn, idColumn);
+    }
+
+    /**
+     * The key names are matched by, the name itself. The first name added under a key is the one stored.
+     */
+    protected String keyOf(String name) {
+        return name;
+    }
+
+    public int idOf(String name) {
+        String key = keyOf(name);
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = names.size() + 1;
+            names.add(name);
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    public String nameOf(int id) {
+        return names.get(id - 1);
+    }
+
+    /**
+     * Writes the names added since the last committed chunk. Call it from the writer, before the rows using them.
+     */
+    public void flush() {
+        if (pendingFrom == names.size()) {
+            return;
+        }
+        List<Object[]> batch = new ArrayList<>(names.size() - pendingFrom);
+        for (int i = pendingFrom; i < names.size(); i++) {
+            batch.add(new Object[]{i + 1, names.get(i)});
+        }
+        jdbcTemplate.batchUpdate(mergeSql, batch);
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        ids.clear();
+        names.clear();
+        jdbcTemplate.query(selectSql, rs -> {
+            // ids are dense and start at 1, the list index is the id - 1
+            int id = rs.getInt(1);
+            while (names.size() < id - 1) {
+                names.add(null);
+            }
+            names.add(rs.getString(2));
+            ids.put(keyOf(rs.getString(2)), id);
+        });
+        pendingFrom = names.size();
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        pendingFrom = names.size();
+    }
+}
@@ -0,0 +1,43 @@
+package com.play.common.loader.util;
+
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+
+/**
+ * Turns the referential checks of a table off for one loading step, whose rows a {@link MovieIdFilter} already
+ * checked. H2 turns them off for the whole table, for every writer and not only the load, so they are turned back on
+ * in afterStep, which runs whether the step completed or failed, and a failed load never leaves them off. The
+ * statements are in the open and close scripts of the loader.
+ */
+public class ReferentialChecksOff implements StepExecutionListener {
+    private final String loader;
+    private final DataSource dataSource;
+    private final Resource openScript;
+    private final Resource closeScript;
+
+    public ReferentialChecksOff(String loader, DataSource dataSource, Resource openScript, Resource closeScript) {
+        this.loader = loader;
+        this.dataSource = dataSource;
+        this.openScript = openScript;
+        this.closeScript = closeScript;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        new ResourceDatabasePopulator(openScript).execute(dataSource);
+        System.out.println(String.format("[%s] referential checks off for %s", loader, stepExecution.getStepName()));
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        new ResourceDatabasePopulator(closeScript).execute(dataSource);
+        System.out.println(String.format("[%s] referential checks back on after %s, %s", loader, stepExecution.getStepName(),
+                stepExecution.getStatus()));
+        return null;
+    }
+}
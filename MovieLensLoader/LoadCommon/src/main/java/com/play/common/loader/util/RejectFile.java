@@ -0,0 +1,66 @@
+package com.play.common.loader.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Csv file collecting the rows a loader refused, one "reason,record" line each. It is only created once a first
+ * row is rejected, replacing the file of an earlier run, and can be shared by the partitions of a step.
+ */
+public class RejectFile {
+    private final Path path;
+    private BufferedWriter writer;
+    private long count;
+
+    public RejectFile(String path) {
+        this.path = Paths.get(path);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized void reject(String reason, String record) {
+        try {
+            if (writer == null) {
+                if (path.toAbsolutePath().getParent() != null) {
+                    Files.createDirectories(path.toAbsolutePath().getParent());
+                }
+                writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            }
+            writer.write(reason);
+            writer.write(',');
+            writer.write(record);
+            writer.newLine();
+            count++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write to " + path, e);
+        }
+    }
+
+    public synchronized void flush() {
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write to " + path, e);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
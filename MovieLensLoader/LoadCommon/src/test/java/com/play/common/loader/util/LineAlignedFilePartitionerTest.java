@@ -0,0 +1,106 @@
+package com.play.common.loader.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static com.play.common.loader.util.LineAlignedFilePartitioner.END_OFFSET;
+import static com.play.common.loader.util.LineAlignedFilePartitioner.START_OFFSET;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The ranges of {@link LineAlignedFilePartitioner}, read back with one {@link MappedCsvItemReader} each: together they
+ * read every row of the file once and in order, whatever the number of partitions.
+ */
+class LineAlignedFilePartitionerTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void rangesCoverEveryLineOnce() throws Exception {
+        List<List<String>> expected = new ArrayList<>();
+        Path csv = Files.writeString(dir.resolve("ratings.csv"), rowsWithoutQuotedLineBreaks(300, expected));
+        for (int gridSize : new int[]{1, 2, 3, 7, 64, 300, 1000}) {
+            Map<String, ExecutionContext> partitions = new LineAlignedFilePartitioner(new FileSystemResource(csv), 1).partition(gridSize);
+            assertThat(partitions.size()).isLessThanOrEqualTo(gridSize);
+            long previousEnd = -1;
+            List<List<String>> read = new ArrayList<>();
+            for (ExecutionContext partition : partitions.values()) {
+                long start = partition.getLong(START_OFFSET);
+                long end = partition.getLong(END_OFFSET);
+                assertThat(start).isLessThan(end);
+                if (previousEnd >= 0) {
+                    assertThat(start).isEqualTo(previousEnd);
+                }
+                previousEnd = end;
+                read.addAll(MappedCsvItemReaderTest.read(reader(csv, start, end), 0));
+            }
+            assertThat(previousEnd).isEqualTo(Files.size(csv));
+            assertThat(read).as("%s partitions", gridSize).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void splitsANarrowerRangeWithoutItsHeader() throws Exception {
+        List<List<String>> expected = new ArrayList<>();
+        String content = rowsWithoutQuotedLineBreaks(100, expected);
+        Path csv = Files.writeString(dir.resolve("ratings.csv"), content);
+        // the rows appended after a previous load, from the start of row 40
+        long from = content.indexOf("\n40,") + 1;
+        List<List<String>> read = new ArrayList<>();
+        for (ExecutionContext partition : new LineAlignedFilePartitioner(new FileSystemResource(csv), 1, from, Long.MAX_VALUE).partition(4).values()) {
+            read.addAll(MappedCsvItemReaderTest.read(reader(csv, partition.getLong(START_OFFSET), partition.getLong(END_OFFSET)), 0));
+        }
+        assertThat(read).isEqualTo(expected.subList(40, 100));
+    }
+
+    @Test
+    void loadsAStreamAsOnePartitionAfterItsHeader() throws Exception {
+        List<List<String>> expected = new ArrayList<>();
+        Path csv = dir.resolve("ratings.csv.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(csv))) {
+            out.write(rowsWithoutQuotedLineBreaks(50, expected).getBytes(StandardCharsets.UTF_8));
+        }
+        Map<String, ExecutionContext> partitions = new LineAlignedFilePartitioner(new FileSystemResource(csv), 1).partition(4);
+        assertThat(partitions).hasSize(1);
+        ExecutionContext partition = partitions.get("partition0");
+        assertThat(MappedCsvItemReaderTest.read(reader(csv, partition.getLong(START_OFFSET), partition.getLong(END_OFFSET)), 0))
+                .isEqualTo(expected);
+    }
+
+    // the partitioner cuts at the next '\n' and does not follow quotes, the MovieLens rating and tag files have no
+    // line break inside a field
+    private static String rowsWithoutQuotedLineBreaks(int count, List<List<String>> expected) {
+        StringBuilder csv = new StringBuilder("userId,movieId,rating,timestamp\n");
+        for (int i = 0; i < count; i++) {
+            String rating = String.valueOf((i % 10 + 1) / 2.0);
+            csv.append(i).append(',').append(i * 13 % 1000).append(',').append(rating).append(',').append(1_000_000_000L + i)
+                    .append(i % 4 == 0 ? "\r\n" : "\n");
+            expected.add(List.of(String.valueOf(i), String.valueOf(i * 13 % 1000), rating, String.valueOf(1_000_000_000L + i)));
+        }
+        return csv.toString();
+    }
+
+    private static MappedCsvItemReader<List<String>> reader(Path csv, long start, long end) {
+        MappedCsvItemReader<List<String>> reader = new MappedCsvItemReader<>(new FileSystemResource(csv), start, end, row -> {
+            List<String> fields = new ArrayList<>();
+            for (int i = 0; i < row.getFieldCount(); i++) {
+                fields.add(row.readString(i));
+            }
+            return fields;
+        });
+        reader.setName("csv");
+        reader.setWindowSizes(64, 64);
+        return reader;
+    }
+}
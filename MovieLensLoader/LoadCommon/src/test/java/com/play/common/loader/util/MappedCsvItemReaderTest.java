@@ -0,0 +1,157 @@
+package com.play.common.loader.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The RFC-4180 split of {@link MappedCsvItemReader} and {@link CsvRow}, on a mapped file and on a gzip stream, with
+ * windows small enough that records run over the end of a mapping or of a refill.
+ */
+class MappedCsvItemReaderTest {
+    private static final CsvRowMapper<List<String>> FIELDS = row -> {
+        List<String> fields = new ArrayList<>();
+        for (int i = 0; i < row.getFieldCount(); i++) {
+            fields.add(row.readString(i));
+        }
+        return fields;
+    };
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void splitsQuotedFields() throws Exception {
+        Path csv = write("movies.csv", "movieId,title,genres\n"
+                + "1,Toy Story (1995),Adventure|Animation\n"
+                + "11,\"American President, The (1995)\",Comedy|Drama|Romance\n"
+                + "2,\"The \"\"Great\"\" Escape\",Drama\n"
+                + "3,\"two\nlines, and \"\"quotes\"\"\",\n"
+                + "4,\"\",Comedy\n");
+        assertThat(read(reader(csv), 1)).containsExactly(
+                List.of("1", "Toy Story (1995)", "Adventure|Animation"),
+                List.of("11", "American President, The (1995)", "Comedy|Drama|Romance"),
+                List.of("2", "The \"Great\" Escape", "Drama"),
+                List.of("3", "two\nlines, and \"quotes\"", ""),
+                List.of("4", "", "Comedy"));
+    }
+
+    @Test
+    void dropsTheCarriageReturnOfCrlfLines() throws Exception {
+        Path csv = write("ratings.csv", "userId,movieId,rating,timestamp\r\n1,31,2.5,1260759144\r\n1,1029,3.0,1260759179");
+        MappedCsvItemReader<List<Object>> reader = new MappedCsvItemReader<>(new FileSystemResource(csv), row ->
+                List.of(row.readLong(0), row.readLong(1), row.readDouble(2), row.readLong(3), row.getFieldCount()));
+        reader.setName("csv");
+        reader.setLinesToSkip(1);
+        List<List<Object>> values = new ArrayList<>();
+        reader.open(new ExecutionContext());
+        for (List<Object> item; (item = reader.read()) != null; ) {
+            values.add(item);
+        }
+        reader.close();
+        assertThat(values).containsExactly(List.of(1L, 31L, 2.5, 1260759144L, 4), List.of(1L, 1029L, 3.0, 1260759179L, 4));
+    }
+
+    @Test
+    void readsRecordsRunningOverTheMappingWindow() throws Exception {
+        List<List<String>> expected = new ArrayList<>();
+        Path csv = write("tags.csv", rows(500, expected));
+        MappedCsvItemReader<List<String>> reader = reader(csv);
+        reader.setWindowSizes(64, 64);
+        assertThat(read(reader, 1)).isEqualTo(expected);
+    }
+
+    @Test
+    void readsRecordsRunningOverTheStreamRefill() throws Exception {
+        List<List<String>> expected = new ArrayList<>();
+        Path csv = dir.resolve("tags.csv.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(csv))) {
+            out.write(rows(500, expected).getBytes(StandardCharsets.UTF_8));
+        }
+        MappedCsvItemReader<List<String>> reader = reader(csv);
+        reader.setWindowSizes(64, 64);
+        assertThat(read(reader, 1)).isEqualTo(expected);
+    }
+
+    @Test
+    void restartsAfterTheItemsAlreadyRead() throws Exception {
+        List<List<String>> expected = new ArrayList<>();
+        Path csv = write("tags.csv", rows(100, expected));
+        MappedCsvItemReader<List<String>> first = reader(csv);
+        first.setWindowSizes(64, 64);
+        first.setLinesToSkip(1);
+        ExecutionContext context = new ExecutionContext();
+        first.open(context);
+        for (int i = 0; i < 37; i++) {
+            first.read();
+        }
+        first.update(context);
+        first.close();
+
+        MappedCsvItemReader<List<String>> restarted = reader(csv);
+        restarted.setWindowSizes(64, 64);
+        restarted.setLinesToSkip(1);
+        restarted.open(context);
+        assertThat(restarted.read()).isEqualTo(expected.get(37));
+        restarted.close();
+    }
+
+    @Test
+    void failsOnARecordLargerThanTheWindow() throws Exception {
+        Path csv = write("tags.csv", "userId,movieId,tag,timestamp\n1,2,\"" + "x".repeat(100) + "\",3\n");
+        MappedCsvItemReader<List<String>> reader = reader(csv);
+        reader.setWindowSizes(64, 64);
+        reader.setLinesToSkip(1);
+        reader.open(new ExecutionContext());
+        assertThatThrownBy(reader::read).hasMessageContaining("larger than the mapping window");
+        reader.close();
+    }
+
+    // header and count rows of varying length, with quoted commas, doubled quotes and line breaks, CRLF every third
+    static String rows(int count, List<List<String>> expected) {
+        StringBuilder csv = new StringBuilder("userId,movieId,tag,timestamp\n");
+        for (int i = 0; i < count; i++) {
+            String tag = "tag " + "ab".repeat(i % 7) + (i % 3 == 0 ? ", \"quoted\"" : "") + (i % 5 == 0 ? "\nnext line" : "");
+            String field = tag.contains(",") || tag.contains("\"") || tag.contains("\n")
+                    ? "\"" + tag.replace("\"", "\"\"") + "\"" : tag;
+            csv.append(i).append(',').append(i * 7).append(',').append(field).append(',').append(1_000_000_000L + i)
+                    .append(i % 3 == 1 ? "\r\n" : "\n");
+            expected.add(List.of(String.valueOf(i), String.valueOf(i * 7), tag, String.valueOf(1_000_000_000L + i)));
+        }
+        return csv.toString();
+    }
+
+    static List<List<String>> read(MappedCsvItemReader<List<String>> reader, int linesToSkip) throws Exception {
+        List<List<String>> items = new ArrayList<>();
+        reader.setLinesToSkip(linesToSkip);
+        reader.open(new ExecutionContext());
+        for (List<String> item; (item = reader.read()) != null; ) {
+            items.add(item);
+        }
+        reader.close();
+        return items;
+    }
+
+    static MappedCsvItemReader<List<String>> reader(Path csv) {
+        MappedCsvItemReader<List<String>> reader = new MappedCsvItemReader<>(new FileSystemResource(csv), FIELDS);
+        reader.setName("csv");
+        return reader;
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(dir.resolve(name), content);
+    }
+}
@@ -1,34 +1,62 @@
 package com.play.movies.loader;
 
-import com.play.movies.loader.util.MovieUtil;
+import com.play.common.loader.util.AdaptiveCompletionPolicy;
+import com.play.common.loader.util.CsvRow;
+import com.play.common.loader.util.CsvRowMapper;
+import com.play.common.loader.util.CsvSource;
+import com.play.common.loader.util.DatasetVersion;
+import com.play.common.loader.util.LoadMetricsListener;
+import com.play.common.loader.util.MappedCsvItemReader;
+import com.play.movies.loader.util.GenreDictionary;
+import com.play.movies.loader.util.MovieTitleParser;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import jakarta.persistence.UniqueConstraint;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.job.builder.FlowBuilder;
 import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.job.flow.Flow;
+import org.springframework.batch.core.job.flow.support.SimpleFlow;
 import org.springframework.batch.core.launch.support.RunIdIncrementer;
 import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.scope.context.ChunkContext;
 import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
 import org.springframework.batch.item.database.ItemPreparedStatementSetter;
 import org.springframework.batch.item.database.JdbcBatchItemWriter;
 import org.springframework.batch.item.database.builder.JdbcBatchItemWriterBuilder;
-import org.springframework.batch.item.file.FlatFileItemReader;
-import org.springframework.batch.item.file.builder.FlatFileItemReaderBuilder;
-import org.springframework.batch.item.file.mapping.FieldSetMapper;
-import org.springframework.batch.item.file.transform.FieldSet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 import org.springframework.transaction.PlatformTransactionManager;
-import org.springframework.validation.BindException;
 
 import javax.sql.DataSource;
+import java.io.Serializable;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 
 @SpringBootApplication
 public class MovieLoaderApplication {
@@ -40,47 +68,100 @@ public class MovieLoaderApplication {
     Job job(MovieBatchConfig movieBatchConfig) {
         return new JobBuilder("JobCsvMoviesToDb", movieBatchConfig.jobRepository)
                 .incrementer(new RunIdIncrementer())
-                .start(movieBatchConfig.csvMoviesToDb())
+                .start(movieBatchConfig.movieFlow())
+                .end()
                 .build();
     }
 
     @Configuration
-    class MovieBatchConfig {
+    static class MovieBatchConfig {
         private final JobRepository jobRepository;
         private final PlatformTransactionManager platformTransactionManager;
         private final DataSource dataSource;
+        private final MeterRegistry meterRegistry;
+        private final boolean moveTrailingArticle;
+        private final boolean incremental;
 
-        public MovieBatchConfig(JobRepository jobRepository, PlatformTransactionManager platformTransactionManager, DataSource dataSource) {
+        public MovieBatchConfig(JobRepository jobRepository, PlatformTransactionManager platformTransactionManager, DataSource dataSource,
+                                MeterRegistry meterRegistry,
+                                @Value("${movies.loader.moveTrailingArticle:false}") boolean moveTrailingArticle,
+                                @Value("${movies.loader.incremental:false}") boolean incremental) {
             this.jobRepository = jobRepository;
             this.platformTransactionManager = platformTransactionManager;
             this.dataSource = dataSource;
+            this.meterRegistry = meterRegistry;
+            this.moveTrailingArticle = moveTrailingArticle;
+            this.incremental = incremental;
         }
 
         @Bean
-        FlatFileItemReader<Movie> movieReader() {
-            return new FlatFileItemReaderBuilder<Movie>()
-                    .name("csvMovieReader")
-                    .resource(new ClassPathResource("data/movielens-movies-bigfile.csv"))
-                    .delimited().delimiter(",")
-                    .names("movieId", "movieTitle", "movieGenres")
-                    .linesToSkip(1)
-                    .fieldSetMapper(new FieldSetMapper<Movie>() {
-                        @Override
-                        public Movie mapFieldSet(FieldSet fieldSet) throws BindException {
-                            String movieTitle = fieldSet.readString("movieTitle");
-                            System.out.println(movieTitle);
-                            return new Movie(fieldSet.readLong("movieId"),
-                                    MovieUtil.extractMovieTitle(movieTitle),
-                                    MovieUtil.extractMovieYear(movieTitle), // year is extracted from title ...
-                                    MovieUtil.extractMovieGenres(fieldSet.readString("movieGenres")));
+        CsvSource movieSource(@Value("${movies.loader.file:classpath:data/movielens-movies-bigfile.csv}") String file,
+                              @Value("${movies.loader.entry:movies.csv}") String entry) {
+            return CsvSource.resolve(file, entry);
+        }
+
+        @Bean
+        MappedCsvItemReader<Movie> movieReader() {
+            // columns: movieId, movieTitle, movieGenres
+            MovieTitleParser titleParser = new MovieTitleParser();
+            titleParser.setMoveTrailingArticle(moveTrailingArticle);
+            MappedCsvItemReader<Movie> reader = new MappedCsvItemReader<>(movieSource(null, null), new CsvRowMapper<Movie>() {
+                @Override
+                public Movie mapRow(CsvRow row) {
+                    String movieTitle = row.readString(1);
+                    titleParser.parse(movieTitle); // title and year are extracted in one pass ...
+                    String movieGenres = row.readString(2);
+                    Movie movie = new Movie(row.readLong(0),
+                            titleParser.getTitle(),
+                            titleParser.getYear(),
+                            titleParser.normalizeGenres(movieGenres));
+                    movie.setGenreIds(genreDictionary().idsOf(movieGenres)); // ... and the genres become MovieGenre rows
+                    return movie;
+                }
+            });
+            reader.setName("csvMovieReader");
+            reader.setLinesToSkip(1);
+            return reader;
+        }
+
+        @Bean
+        GenreDictionary genreDictionary() {
+            return new GenreDictionary(dataSource);
+        }
+
+        @Bean
+        ItemWriter<Movie> movieWriter() {
+            JdbcBatchItemWriter<Movie> movieRowWriter = movieRowWriter();
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            return new ItemWriter<Movie>() {
+                @Override
+                public void write(Chunk<? extends Movie> chunk) throws Exception {
+                    // genres first, then the movies and their MovieGenre links, all in the chunk transaction
+                    genreDictionary().flush();
+                    movieRowWriter.write(chunk);
+                    List<Object[]> movieIds = new ArrayList<>(chunk.size());
+                    List<Object[]> movieGenres = new ArrayList<>(chunk.size() * 3);
+                    for (Movie movie : chunk) {
+                        movieIds.add(new Object[]{movie.getMovieId()});
+                        for (int genreId : movie.getGenreIds()) {
+                            movieGenres.add(new Object[]{movie.getMovieId(), genreId});
                         }
-                    })
-                    .build();
+                    }
+                    if (incremental) {
+                        // an upserted movie may have lost genres, its links are written again from scratch
+                        jdbcTemplate.batchUpdate("DELETE FROM MovieGenre WHERE movie_id = ?", movieIds);
+                    }
+                    jdbcTemplate.batchUpdate("INSERT INTO MovieGenre (movie_id, genre_id) VALUES (?,?)", movieGenres);
+                }
+            };
         }
 
         @Bean
-        JdbcBatchItemWriter<Movie> movieWriter() {
-            String sql = "insert into Movie (movie_id, movie_title, movie_year, movie_genres) values (?,?,?,?)";
+        JdbcBatchItemWriter<Movie> movieRowWriter() {
+            // incremental mode reloads the whole movie file and upserts on movie_id
+            String sql = incremental
+                    ? "MERGE INTO Movie (movie_id, movie_title, movie_year, movie_genres) KEY (movie_id) values (?,?,?,?)"
+                    : "insert into Movie (movie_id, movie_title, movie_year, movie_genres) values (?,?,?,?)";
             return new JdbcBatchItemWriterBuilder<Movie>()
                     .sql(sql)
                     .dataSource(dataSource)
@@ -96,18 +177,93 @@ public class MovieLoaderApplication {
                     .build();
         }
 
+        @Bean
+        @StepScope
+        AdaptiveCompletionPolicy movieCompletionPolicy(@Value("${movies.loader.chunk.initial:100}") Integer initialSize,
+                                                  @Value("${movies.loader.chunk.min:50}") Integer minSize,
+                                                  @Value("${movies.loader.chunk.max:5000}") Integer maxSize,
+                                                  @Value("${movies.loader.chunk.maxCommitMillis:500}") Long maxCommitMillis) {
+            return new AdaptiveCompletionPolicy(initialSize, minSize, maxSize, maxCommitMillis);
+        }
+
+        @Bean
+        @StepScope
+        LoadMetricsListener movieMetricsListener(@Value("${movies.loader.progressSeconds:10}") Long progressSeconds) {
+            return new LoadMetricsListener("Movie", movieReader(), progressSeconds, meterRegistry);
+        }
+
+        @Bean
+        Step genreIgnoreCase() {
+            return new StepBuilder("StepGenreIgnoreCase", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            // before the genre dictionary reads Genre, see genre-ignorecase.sql
+                            new ResourceDatabasePopulator(new ClassPathResource("genre-ignorecase.sql")).execute(dataSource);
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        Step movieIndexes() {
+            return new StepBuilder("StepMovieIndexes", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            new ResourceDatabasePopulator(new ClassPathResource("movie-indexes.sql")).execute(dataSource);
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        Step movieDatasetVersion() {
+            return new StepBuilder("StepMovieDatasetVersion", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            new DatasetVersion("Movie", dataSource).bump();
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        Flow movieFlow() {
+            return new FlowBuilder<SimpleFlow>("FlowMovie")
+                    .start(genreIgnoreCase())
+                    .next(csvMoviesToDb())
+                    .next(movieIndexes())
+                    .next(movieDatasetVersion())
+                    .build();
+        }
+
         @Bean
         Step csvMoviesToDb() {
             return new StepBuilder("StepCsvMoviesToDb", jobRepository)
-                    .<Movie, Movie>chunk(100, platformTransactionManager)
+                    .<Movie, Movie>chunk(movieCompletionPolicy(null, null, null, null), platformTransactionManager)
                     .reader(movieReader())
                     .writer(movieWriter())
+                    .listener((ChunkListener) movieCompletionPolicy(null, null, null, null))
+                    .listener((ItemWriteListener<Object>) movieCompletionPolicy(null, null, null, null))
+                    .listener((StepExecutionListener) movieCompletionPolicy(null, null, null, null))
+                    .listener((StepExecutionListener) genreDictionary())
+                    .listener((ChunkListener) genreDictionary())
+                    .listener((StepExecutionListener) movieMetricsListener(null))
+                    .listener((ChunkListener) movieMetricsListener(null))
+                    .listener((ItemReadListener<Object>) movieMetricsListener(null))
+                    .listener((ItemWriteListener<Object>) movieMetricsListener(null))
                     .build();
         }
     }
 }
 
 @Entity
+// the secondary indexes are not declared here, Hibernate would create them before the load, see movie-indexes.sql
 @Table(name = "Movie")
 class Movie {
     @Id
@@ -119,6 +275,9 @@ class Movie {
     private Long movieYear;
     @Column(name = "movie_genres")
     private String movieGenres;
+    // ids of the genres, stored as MovieGenre rows
+    @Transient
+    private int[] genreIds;
 
     public Movie(Long movieId, String movieTitle, Long movieYear, String movieGenres) {
         this.movieId = movieId;
@@ -158,4 +317,99 @@ class Movie {
     public void setMovieGenres(String movieGenres) {
         this.movieGenres = movieGenres;
     }
+
+    public int[] getGenreIds() {
+        return genreIds;
+    }
+
+    public void setGenreIds(int[] genreIds) {
+        this.genreIds = genreIds;
+    }
+}
+
+@Entity
+@Table(name = "Genre", uniqueConstraints = @UniqueConstraint(name = "UX_GENRE_NAME", columnNames = "genre_name"))
+class Genre {
+    @Id
+    @Column(name = "genre_id")
+    private Integer genreId;
+    // case insensitive in H2, the service finds "comedy" through UX_GENRE_NAME without an UPPER over the table
+    @Column(name = "genre_name", columnDefinition = "varchar_ignorecase(255)")
+    private String genreName;
+
+    public Genre() {
+    }
+
+    public Integer getGenreId() {
+        return genreId;
+    }
+
+    public void setGenreId(Integer genreId) {
+        this.genreId = genreId;
+    }
+
+    public String getGenreName() {
+        return genreName;
+    }
+
+    public void setGenreName(String genreName) {
+        this.genreName = genreName;
+    }
+}
+
+/**
+ * One row per genre of a movie. The primary key is (genre_id, movie_id) and serves genre to movies,
+ * IDX_MOVIE_GENRE_MOVIE serves movie to genres.
+ */
+@Entity
+@IdClass(MovieGenre.Key.class)
+@Table(name = "MovieGenre")
+class MovieGenre {
+    @Id
+    @Column(name = "genre_id")
+    private Integer genreId;
+    @Id
+    @Column(name = "movie_id")
+    private Long movieId;
+
+    public MovieGenre() {
+    }
+
+    public Long getMovieId() {
+        return movieId;
+    }
+
+    public void setMovieId(Long movieId) {
+        this.movieId = movieId;
+    }
+
+    public Integer getGenreId() {
+        return genreId;
+    }
+
+    public void setGenreId(Integer genreId) {
+        this.genreId = genreId;
+    }
+
+    static class Key implements Serializable {
+        private Long movieId;
+        private Integer genreId;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(movieId, key.movieId) && Objects.equals(genreId, key.genreId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(movieId, genreId);
+        }
+    }
 }
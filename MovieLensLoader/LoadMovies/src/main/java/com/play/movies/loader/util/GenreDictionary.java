@@ -0,0 +1,65 @@
+package com.play.movies.loader.util;
+
+import com.play.common.loader.util.NameDictionary;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Dictionary of the genres, built while the movies are loaded. Every genre of the "Comedy|Romance" column gets a
+ * small integer id in the Genre table, and each movie is linked to its genres through MovieGenre rows. Genres are
+ * matched ignoring case, like the case insensitive genre_name column, the first spelling met is the one stored.
+ */
+public class GenreDictionary extends NameDictionary {
+    private static final int[] NO_GENRES = new int[0];
+
+    public GenreDictionary(DataSource dataSource) {
+        super(dataSource, "Genre", "genre_id", "genre_name");
+    }
+
+    /**
+     * Returns the ids of the '|' separated genres, in the order of the column, without duplicates.
+     */
+    public int[] idsOf(String movieGenres) {
+        if (movieGenres == null || movieGenres.isBlank()) {
+            return NO_GENRES;
+        }
+        int[] genreIds = new int[8];
+        int count = 0;
+        int start = 0;
+        while (start <= movieGenres.length()) {
+            int end = movieGenres.indexOf('|', start);
+            if (end < 0) {
+                end = movieGenres.length();
+            }
+            String name = movieGenres.substring(start, end).trim();
+            start = end + 1;
+            if (name.isEmpty()) {
+                continue;
+            }
+            int id = idOf(name);
+            if (!contains(genreIds, count, id)) {
+                if (count == genreIds.length) {
+                    genreIds = Arrays.copyOf(genreIds, count * 2);
+                }
+                genreIds[count++] = id;
+            }
+        }
+        return Arrays.copyOf(genreIds, count);
+    }
+
+    @Override
+    protected String keyOf(String name) {
+        return name.toUpperCase(Locale.ROOT);
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,191 @@
+package com.play.movies.loader.util;
+
+/**
+ * Single pass replacement for the {@link MovieUtil} regex chain. One scan over the raw MovieLens title pulls out
+ * the year and builds the normalized title in a reused buffer: year groups are dropped together with the blanks
+ * around them, everything but ascii letters, digits and blanks is removed, runs of spaces collapse to one and
+ * every word gets a capital first letter.
+ * <p>
+ * The output is the same as {@link MovieUtil#extractMovieTitle(String)} and {@link MovieUtil#extractMovieYear(String)},
+ * except for year ranges like "(2006–2007)", which MovieUtil glued into the title as "20062007" with year 1900.
+ * Here the range is dropped from the title and its first year is kept. A trailing article like "American President,
+ * The" can be moved to the front with {@link #setMoveTrailingArticle(boolean)}, off by default so stored titles
+ * stay as they were.
+ * <p>
+ * Not thread safe, keep one instance per reader.
+ */
+public class MovieTitleParser {
+    public static final long DEFAULT_YEAR = 1900L;
+    private static final String NO_TITLE = "No Title";
+    private static final String[] TRAILING_ARTICLES = {", The", ", An", ", A"};
+
+    private final StringBuilder buffer = new StringBuilder(128);
+    private boolean moveTrailingArticle;
+    private int wordsEnd;
+    private String title;
+    private long year;
+
+    public void setMoveTrailingArticle(boolean moveTrailingArticle) {
+        this.moveTrailingArticle = moveTrailingArticle;
+    }
+
+    public void parse(String movieTitle) {
+        buffer.setLength(0);
+        wordsEnd = 0;
+        year = -1;
+
+        int length = movieTitle.length();
+        int nameEnd = moveTrailingArticle ? nameEnd(movieTitle) : length;
+        String article = moveTrailingArticle ? trailingArticle(movieTitle, nameEnd) : null;
+        if (article != null) {
+            scan(article, 2, article.length());
+            append(' ');
+            scan(movieTitle, 0, nameEnd - article.length());
+            scan(movieTitle, nameEnd, length);
+        } else {
+            scan(movieTitle, 0, length);
+        }
+        // blanks after the last word are trimmed
+        buffer.setLength(wordsEnd);
+        title = buffer.length() == 0 ? NO_TITLE : buffer.toString();
+        if (year < 0) {
+            year = DEFAULT_YEAR;
+        }
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public long getYear() {
+        return year;
+    }
+
+    public String normalizeGenres(String movieGenres) {
+        return movieGenres.replace('|', ',');
+    }
+
+    private void scan(String s, int from, int to) {
+        int i = from;
+        while (i < to) {
+            char c = s.charAt(i);
+            if (c == '(' || isBlank(c)) {
+                int groupStart = skipBlanks(s, i, to);
+                int groupEnd = yearGroupEnd(s, groupStart, to);
+                if (groupEnd > 0) {
+                    if (year < 0) {
+                        year = parseYear(s, groupStart + 1);
+                    }
+                    i = skipBlanks(s, groupEnd, to);
+                    continue;
+                }
+                // no year group starts inside this run of blanks either
+                for (; i < groupStart; i++) {
+                    append(s.charAt(i));
+                }
+                if (i < to && s.charAt(i) == '(') {
+                    i++;
+                }
+                continue;
+            }
+            if (isAsciiLetterOrDigit(c)) {
+                append(c);
+            }
+            i++;
+        }
+    }
+
+    private void append(char c) {
+        int length = buffer.length();
+        if (isBlank(c)) {
+            // leading blanks are dropped and runs of spaces collapse to one
+            if (length > 0 && !(c == ' ' && buffer.charAt(length - 1) == ' ')) {
+                buffer.append(c);
+            }
+            return;
+        }
+        if (length == 0 || buffer.charAt(length - 1) == ' ') {
+            buffer.append(Character.toUpperCase(c));
+        } else {
+            buffer.append(c);
+        }
+        wordsEnd = buffer.length();
+    }
+
+    /**
+     * Returns the index just after "(dddd)" or a year range "(dddd-dddd)", "(dddd–dddd)", "(dddd-)" at pos, or -1.
+     */
+    private static int yearGroupEnd(String s, int pos, int end) {
+        if (pos + 6 > end || s.charAt(pos) != '(' || !isYear(s, pos + 1, end)) {
+            return -1;
+        }
+        int i = pos + 5;
+        if (s.charAt(i) == ')') {
+            return i + 1;
+        }
+        if (s.charAt(i) != '-' && s.charAt(i) != '\u2013') {
+            return -1;
+        }
+        i++;
+        if (isYear(s, i, end)) {
+            i += 4;
+        }
+        return (i < end && s.charAt(i) == ')') ? i + 1 : -1;
+    }
+
+    private static int nameEnd(String s) {
+        int end = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '(' && yearGroupEnd(s, i, s.length()) > 0) {
+                end = i;
+                break;
+            }
+        }
+        while (end > 0 && isBlank(s.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static String trailingArticle(String s, int nameEnd) {
+        for (String article : TRAILING_ARTICLES) {
+            if (nameEnd >= article.length() && s.startsWith(article, nameEnd - article.length())) {
+                return article;
+            }
+        }
+        return null;
+    }
+
+    private static long parseYear(String s, int pos) {
+        return (s.charAt(pos) - '0') * 1000L + (s.charAt(pos + 1) - '0') * 100L
+                + (s.charAt(pos + 2) - '0') * 10L + (s.charAt(pos + 3) - '0');
+    }
+
+    private static int skipBlanks(String s, int pos, int end) {
+        while (pos < end && isBlank(s.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isYear(String s, int pos, int end) {
+        if (pos + 4 > end) {
+            return false;
+        }
+        for (int i = pos; i < pos + 4; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+}
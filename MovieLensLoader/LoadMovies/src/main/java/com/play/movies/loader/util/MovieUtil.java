@@ -3,14 +3,18 @@ package com.play.movies.loader.util;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Regex based title normalization, kept as the reference behaviour for {@link MovieTitleParser}.
+ */
 public class MovieUtil {
+    // Regular expression to match a year in brackets
+    private static final Pattern YEAR_PATTERN = Pattern.compile("\\((\\d{4})\\)");
+    private static final Pattern YEAR_GROUP_PATTERN = Pattern.compile("\\s*\\(\\d{4}\\)\\s*");
+    private static final Pattern SPECIAL_CHARACTERS_PATTERN = Pattern.compile("[^a-zA-Z0-9\\s]");
+
     public static Long extractMovieYear(String inputString) {
         String ret = "";
-        // Regular expression to match a year in brackets
-        String regex = "\\((\\d{4})\\)";
-
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(inputString);
+        Matcher matcher = YEAR_PATTERN.matcher(inputString);
 
         if (matcher.find()) {
             ret =  matcher.group(1).trim();  // Extract the year
@@ -25,15 +29,13 @@ public class MovieUtil {
         return capitalizeFirstLetterAfterSpace(cleanedString);
     }
     public static String extractMovieName(String inputString) {
-        String regex = "\\s*\\(\\d{4}\\)\\s*";
-        return inputString.replaceAll(regex, "").trim();
+        return YEAR_GROUP_PATTERN.matcher(inputString).replaceAll("").trim();
     }
     public static String extractMovieGenres(String inputString) {
-        return inputString.replaceAll("\\|", ",");
+        return inputString.replace('|', ',');
     }
     private static String removeSpecialCharacters(String inputString) {
-        String regex = "[^a-zA-Z0-9\\s]";
-        inputString = inputString.replaceAll(regex, "").trim();
+        inputString = SPECIAL_CHARACTERS_PATTERN.matcher(inputString).replaceAll("").trim();
         inputString = isNotNullNotEmpty(inputString) ? inputString : "No Title";
         return inputString.trim();
     }
@@ -0,0 +1,2 @@
+-- Hibernate leaves genre_name of a database loaded before as VARCHAR, it becomes VARCHAR_IGNORECASE like on a new one.
+ALTER TABLE IF EXISTS Genre ALTER COLUMN genre_name SET DATA TYPE VARCHAR_IGNORECASE(255);
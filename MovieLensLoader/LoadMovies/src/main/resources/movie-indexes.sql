@@ -0,0 +1,4 @@
+-- Secondary indexes of Movie and MovieGenre, built after the load step.
+CREATE INDEX IF NOT EXISTS IDX_MOVIE_YEAR ON Movie(movie_year);
+CREATE INDEX IF NOT EXISTS IDX_MOVIE_TITLE ON Movie(movie_title);
+CREATE INDEX IF NOT EXISTS IDX_MOVIE_GENRE_MOVIE ON MovieGenre(movie_id);
@@ -1,6 +1,9 @@
 -- Drop the Rating table if it exists
 DROP TABLE IF EXISTS Rating;
 DROP TABLE IF EXISTS Tag;
+DROP TABLE IF EXISTS TagVocabulary;
+DROP TABLE IF EXISTS MovieGenre;
+DROP TABLE IF EXISTS Genre;
 
 -- Create the Movie table
 CREATE TABLE IF NOT EXISTS Movie (
@@ -9,23 +12,60 @@ CREATE TABLE IF NOT EXISTS Movie (
     movie_year BIGINT,
     movie_genres VARCHAR(255)
 );
+CREATE INDEX IF NOT EXISTS IDX_MOVIE_YEAR ON Movie(movie_year);
+CREATE INDEX IF NOT EXISTS IDX_MOVIE_TITLE ON Movie(movie_title);
+
+-- Create the Genre table, every genre of the movie_genres column once, the name is matched ignoring case
+CREATE TABLE IF NOT EXISTS Genre (
+    genre_id INTEGER PRIMARY KEY,
+    genre_name VARCHAR_IGNORECASE(255),
+    CONSTRAINT UX_GENRE_NAME UNIQUE (genre_name)
+);
+
+-- Create the MovieGenre table, one row per genre of a movie, indexed both ways
+CREATE TABLE IF NOT EXISTS MovieGenre (
+    genre_id INTEGER,
+    movie_id BIGINT,
+    PRIMARY KEY (genre_id, movie_id),
+    CONSTRAINT FK_MOVIE_GENRE_MOVIE FOREIGN KEY (movie_id) REFERENCES Movie(movie_id),
+    CONSTRAINT FK_MOVIE_GENRE_GENRE FOREIGN KEY (genre_id) REFERENCES Genre(genre_id)
+);
+CREATE INDEX IF NOT EXISTS IDX_MOVIE_GENRE_MOVIE ON MovieGenre(movie_id);
 
 -- Create the Rating table with a separate unique identifier
+-- (the compact profile creates it with INT ids, a TINYINT half star rating and INT epoch seconds, see META-INF/orm-compact-rating.xml of LoadRatings)
 CREATE TABLE IF NOT EXISTS Rating (
     rating_id BIGINT AUTO_INCREMENT PRIMARY KEY,
     user_id BIGINT,
     movie_id BIGINT,
     rating DOUBLE,
     timestamp TIMESTAMP,
-    FOREIGN KEY (movie_id) REFERENCES Movie(movie_id)
+    CONSTRAINT FK_RATING_MOVIE FOREIGN KEY (movie_id) REFERENCES Movie(movie_id)
 );
+-- the listings by user and by movie are pages in rating_id order
+CREATE INDEX IF NOT EXISTS IDX_RATING_BY_USER ON Rating(user_id, rating_id);
+CREATE INDEX IF NOT EXISTS IDX_RATING_BY_MOVIE ON Rating(movie_id, rating_id);
+CREATE INDEX IF NOT EXISTS IDX_RATING_BY_RATING ON Rating(rating);
 
--- Create the Tag table with a separate unique identifier
+-- Create the TagVocabulary table, every distinct normalized tag once
+CREATE TABLE IF NOT EXISTS TagVocabulary (
+    tag_vocabulary_id INTEGER PRIMARY KEY,
+    tag VARCHAR(255),
+    CONSTRAINT UX_TAG_VOCABULARY_TAG UNIQUE (tag)
+);
+
+-- Create the Tag table with a separate unique identifier, the tag text is in TagVocabulary
+-- (the compact profile creates it with INT ids and INT epoch seconds, see META-INF/orm-compact-tag.xml of LoadTags)
 CREATE TABLE IF NOT EXISTS Tag (
     tag_id BIGINT AUTO_INCREMENT PRIMARY KEY,
     user_id BIGINT,
     movie_id BIGINT,
-    tag VARCHAR(255),
+    tag_vocabulary_id INTEGER,
     timestamp TIMESTAMP,
-    FOREIGN KEY (movie_id) REFERENCES Movie(movie_id)
+    CONSTRAINT FK_TAG_MOVIE FOREIGN KEY (movie_id) REFERENCES Movie(movie_id),
+    CONSTRAINT FK_TAG_VOCABULARY FOREIGN KEY (tag_vocabulary_id) REFERENCES TagVocabulary(tag_vocabulary_id)
 );
+CREATE INDEX IF NOT EXISTS IDX_TAG_VOCABULARY ON Tag(tag_vocabulary_id);
+-- the listings by user and by movie are pages in tag_id order
+CREATE INDEX IF NOT EXISTS IDX_TAG_BY_USER ON Tag(user_id, tag_id);
+CREATE INDEX IF NOT EXISTS IDX_TAG_BY_MOVIE ON Tag(movie_id, tag_id);
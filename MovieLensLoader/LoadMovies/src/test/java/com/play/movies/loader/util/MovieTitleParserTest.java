@@ -0,0 +1,100 @@
+package com.play.movies.loader.util;
+
+import com.play.common.loader.util.MappedCsvItemReader;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Every row of a movies csv goes through {@link MovieTitleParser} and through the {@link MovieUtil} regex chain it
+ * replaces, read with the reader of the loader. movies.csv holds the title patterns of the MovieLens files, the
+ * full dataset is compared too when it is in the default location of the loader, data/movielens-movies-bigfile.csv
+ * on the classpath.
+ */
+class MovieTitleParserTest {
+    private static final String DATASET = "data/movielens-movies-bigfile.csv";
+    // year ranges, "(2006–2007)" or "(2016-)", are the one place the parser differs from MovieUtil
+    private static final Pattern YEAR_RANGE = Pattern.compile("\\s*\\(\\d{4}[-–](\\d{4})?\\)\\s*");
+    private static final Pattern FIRST_YEAR = Pattern.compile("\\((\\d{4})(?:[-–](?:\\d{4})?)?\\)");
+
+    @Test
+    void matchesMovieUtilOnEveryTestMovie() throws Exception {
+        assertThat(compare(new ClassPathResource("movies.csv"))).isEqualTo(151);
+    }
+
+    @Test
+    void matchesMovieUtilOnEveryDatasetMovie() throws Exception {
+        Resource dataset = new ClassPathResource(DATASET);
+        assumeTrue(dataset.exists(), DATASET + " is not on the classpath");
+        assertThat(compare(dataset)).isPositive();
+    }
+
+    @Test
+    void dropsAYearRangeAndKeepsItsFirstYear() {
+        MovieTitleParser parser = new MovieTitleParser();
+        parser.parse("Death Note: Desu nôto (2006–2007)");
+        assertThat(parser.getTitle()).isEqualTo("Death Note Desu Nto");
+        assertThat(parser.getYear()).isEqualTo(2006L);
+        assertThat(MovieUtil.extractMovieTitle("Death Note: Desu nôto (2006–2007)")).isEqualTo("Death Note Desu Nto 20062007");
+        assertThat(MovieUtil.extractMovieYear("Death Note: Desu nôto (2006–2007)")).isEqualTo(1900L);
+    }
+
+    @Test
+    void movesTheTrailingArticleWhenAsked() {
+        MovieTitleParser parser = new MovieTitleParser();
+        parser.setMoveTrailingArticle(true);
+        parser.parse("American President, The (1995)");
+        assertThat(parser.getTitle()).isEqualTo("The American President");
+        parser.parse("Awfully Big Adventure, An (1995)");
+        assertThat(parser.getTitle()).isEqualTo("An Awfully Big Adventure");
+        assertThat(parser.getYear()).isEqualTo(1995L);
+    }
+
+    // returns the number of rows compared, every difference fails the test
+    private static int compare(Resource movies) throws Exception {
+        MappedCsvItemReader<String[]> reader = new MappedCsvItemReader<>(movies,
+                row -> new String[]{row.readString(1), row.readString(2)});
+        reader.setName("testMovieReader");
+        reader.setLinesToSkip(1);
+        reader.open(new ExecutionContext());
+        MovieTitleParser parser = new MovieTitleParser();
+        List<String> differences = new ArrayList<>();
+        int rows = 0;
+        try {
+            for (String[] movie = reader.read(); movie != null; movie = reader.read()) {
+                rows++;
+                String movieTitle = movie[0];
+                parser.parse(movieTitle);
+                String title;
+                long year;
+                if (YEAR_RANGE.matcher(movieTitle).find()) {
+                    Matcher first = FIRST_YEAR.matcher(movieTitle);
+                    title = MovieUtil.extractMovieTitle(YEAR_RANGE.matcher(movieTitle).replaceAll(""));
+                    year = first.find() ? Long.parseLong(first.group(1)) : MovieTitleParser.DEFAULT_YEAR;
+                } else {
+                    title = MovieUtil.extractMovieTitle(movieTitle);
+                    year = MovieUtil.extractMovieYear(movieTitle);
+                }
+                if (!parser.getTitle().equals(title) || parser.getYear() != year) {
+                    differences.add(String.format("%s: '%s' %s, MovieUtil '%s' %s", movieTitle, parser.getTitle(), parser.getYear(), title, year));
+                }
+                if (!parser.normalizeGenres(movie[1]).equals(MovieUtil.extractMovieGenres(movie[1]))) {
+                    differences.add(movieTitle + ": genres " + parser.normalizeGenres(movie[1]));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        assertThat(differences).isEmpty();
+        return rows;
+    }
+}
@@ -0,0 +1,56 @@
+package com.play.pipeline.loader;
+
+import com.play.pipeline.loader.util.FlowTimingListener;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.job.builder.FlowBuilder;
+import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.job.flow.Flow;
+import org.springframework.batch.core.job.flow.support.SimpleFlow;
+import org.springframework.batch.core.launch.support.RunIdIncrementer;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+/**
+ * Runs the three loaders as one job in one JVM: Movie first, then the rating and tag flows side by side
+ * as a split over the shared DataSource.
+ */
+@SpringBootApplication
+public class PipelineLoaderApplication {
+    public static void main(String[] args) {
+        SpringApplication.run(PipelineLoaderApplication.class, args);
+    }
+
+    @Bean
+    Job job(JobRepository jobRepository,
+            @Qualifier("movieFlow") Flow movieFlow,
+            @Qualifier("ratingFlow") Flow ratingFlow,
+            @Qualifier("tagFlow") Flow tagFlow) {
+        Flow ratingsAndTags = new FlowBuilder<SimpleFlow>("FlowRatingsAndTags")
+                .split(new SimpleAsyncTaskExecutor("pipeline-flow-"))
+                .add(ratingFlow, tagFlow)
+                .build();
+        return new JobBuilder("JobCsvMovieLensToDb", jobRepository)
+                .incrementer(new RunIdIncrementer())
+                .listener(new FlowTimingListener(movieFlow, ratingFlow, tagFlow))
+                .start(movieFlow)
+                .next(ratingsAndTags)
+                .end()
+                .build();
+    }
+
+    // picks up the batch configs of the loaders, but not their applications and standalone jobs
+    @Configuration
+    @ComponentScan(basePackages = {"com.play.movies.loader", "com.play.ratings.loader", "com.play.tags.loader"},
+            excludeFilters = @ComponentScan.Filter(type = FilterType.ANNOTATION, classes = SpringBootApplication.class))
+    @EntityScan(basePackages = {"com.play.movies.loader", "com.play.ratings.loader", "com.play.tags.loader"})
+    static class LoaderConfig {
+    }
+}
@@ -0,0 +1,62 @@
+package com.play.pipeline.loader.util;
+
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.job.flow.Flow;
+import org.springframework.batch.core.job.flow.State;
+import org.springframework.batch.core.step.StepHolder;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reports how long each flow of the job took, from the start of its first step to the end of its last one.
+ * Durations are printed and kept in the job ExecutionContext as "flow.[name].millis".
+ */
+public class FlowTimingListener implements JobExecutionListener {
+    private final Flow[] flows;
+
+    public FlowTimingListener(Flow... flows) {
+        this.flows = flows;
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        for (Flow flow : flows) {
+            Set<String> stepNames = stepNames(flow);
+            LocalDateTime start = null;
+            LocalDateTime end = null;
+            for (StepExecution stepExecution : jobExecution.getStepExecutions()) {
+                if (!stepNames.contains(stepExecution.getStepName()) || stepExecution.getStartTime() == null) {
+                    continue;
+                }
+                if (start == null || stepExecution.getStartTime().isBefore(start)) {
+                    start = stepExecution.getStartTime();
+                }
+                LocalDateTime stepEnd = stepExecution.getEndTime() != null ? stepExecution.getEndTime() : LocalDateTime.now();
+                if (end == null || stepEnd.isAfter(end)) {
+                    end = stepEnd;
+                }
+            }
+            if (start == null) {
+                continue;
+            }
+            long millis = Duration.between(start, end).toMillis();
+            jobExecution.getExecutionContext().putLong("flow." + flow.getName() + ".millis", millis);
+            System.out.println(String.format("[Pipeline] Flow [%s] took %s ms", flow.getName(), millis));
+        }
+    }
+
+    private static Set<String> stepNames(Flow flow) {
+        Set<String> stepNames = new HashSet<>();
+        for (State state : flow.getStates()) {
+            if (state instanceof StepHolder) {
+                stepNames.add(((StepHolder) state).getStep().getName());
+            }
+        }
+        return stepNames;
+    }
+}
@@ -1,32 +1,69 @@
 package com.play.ratings.loader;
 
+import com.play.common.loader.util.AdaptiveCompletionPolicy;
+import com.play.common.loader.util.CsvRow;
+import com.play.common.loader.util.CsvRowMapper;
+import com.play.common.loader.util.CsvSource;
+import com.play.common.loader.util.DatasetVersion;
+import com.play.common.loader.util.DeltaCheckpoint;
+import com.play.common.loader.util.EpochSeconds;
+import com.play.common.loader.util.LineAlignedFilePartitioner;
+import com.play.common.loader.util.LoadMetricsListener;
+import com.play.common.loader.util.MappedCsvItemReader;
+import com.play.common.loader.util.MovieIdFilter;
+import com.play.common.loader.util.ReferentialChecksOff;
+import com.play.common.loader.util.RejectFile;
+import com.play.ratings.loader.util.MovieRatingStatsRefresh;
 import jakarta.persistence.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
 import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepContribution;
 import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.job.builder.FlowBuilder;
 import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.job.flow.Flow;
+import org.springframework.batch.core.job.flow.support.SimpleFlow;
 import org.springframework.batch.core.launch.support.RunIdIncrementer;
+import org.springframework.batch.core.partition.support.Partitioner;
 import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.builder.PartitionStepBuilder;
+import org.springframework.batch.core.step.builder.SimpleStepBuilder;
 import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.core.step.tasklet.Tasklet;
 import org.springframework.batch.item.database.ItemPreparedStatementSetter;
 import org.springframework.batch.item.database.JdbcBatchItemWriter;
 import org.springframework.batch.item.database.builder.JdbcBatchItemWriterBuilder;
-import org.springframework.batch.item.file.FlatFileItemReader;
-import org.springframework.batch.item.file.builder.FlatFileItemReaderBuilder;
-import org.springframework.batch.item.file.mapping.FieldSetMapper;
-import org.springframework.batch.item.file.transform.FieldSet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 import org.springframework.transaction.PlatformTransactionManager;
-import org.springframework.validation.BindException;
 
 import javax.sql.DataSource;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
 @SpringBootApplication
 public class RatingLoaderApplication {
     public static void main(String[] args) {
@@ -37,54 +74,86 @@ public class RatingLoaderApplication {
     Job job(RatingBatchConfig ratingBatchConfig) {
         return new JobBuilder("jobCsvRatingToDb", ratingBatchConfig.jobRepository)
                 .incrementer(new RunIdIncrementer())
-                .start(ratingBatchConfig.csvRatingToDb())
+                .start(ratingBatchConfig.ratingFlow())
+                .end()
                 .build();
     }
 
     @Configuration
-    class RatingBatchConfig {
+    static class RatingBatchConfig {
         private JobRepository jobRepository;
         private PlatformTransactionManager platformTransactionManager;
         private DataSource dataSource;
+        private MeterRegistry meterRegistry;
+        private JobExplorer jobExplorer;
+        private int gridSize;
+        private int threads;
+        private boolean bulk;
+        private boolean incremental;
+        private boolean prefilter;
+        private boolean compact;
 
-        public RatingBatchConfig(JobRepository jobRepository, PlatformTransactionManager platformTransactionManager, DataSource dataSource) {
+        public RatingBatchConfig(JobRepository jobRepository, PlatformTransactionManager platformTransactionManager, DataSource dataSource,
+                                 MeterRegistry meterRegistry,
+                                 JobExplorer jobExplorer,
+                                 @Value("${ratings.loader.gridSize:8}") int gridSize,
+                                 @Value("${ratings.loader.threads:8}") int threads,
+                                 @Value("${ratings.loader.bulk:false}") boolean bulk,
+                                 @Value("${ratings.loader.incremental:false}") boolean incremental,
+                                 @Value("${ratings.loader.prefilter:true}") boolean prefilter,
+                                 @Value("${ratings.loader.compact:false}") boolean compact) {
             this.jobRepository = jobRepository;
             this.platformTransactionManager = platformTransactionManager;
             this.dataSource = dataSource;
+            this.meterRegistry = meterRegistry;
+            this.jobExplorer = jobExplorer;
+            this.gridSize = gridSize;
+            this.threads = threads;
+            this.bulk = bulk;
+            this.incremental = incremental;
+            this.prefilter = prefilter;
+            this.compact = compact;
         }
 
         @Bean
-        FlatFileItemReader<Rating> ratingReader() {
-            return new FlatFileItemReaderBuilder<Rating>()
-                    .name("csvRatingReader")
-                    .resource(new ClassPathResource("data/movielens-ratings-smallfile.csv"))
-                    .delimited().delimiter(",")
-                    .names("userId", "movieId", "rating", "timestamp")
-                    .linesToSkip(1)
-                    .fieldSetMapper(new FieldSetMapper<Rating>() {
-                        @Override
-                        public Rating mapFieldSet(FieldSet fieldSet) throws BindException {
-                            long timestamp = fieldSet.readLong("timestamp");
-                            long epochMilli = Instant.now().toEpochMilli();
-                            Timestamp ts = (isNotNullNotEmpty(String.valueOf(timestamp))) ? new Timestamp(timestamp) : new Timestamp(epochMilli);
-                            return new Rating(fieldSet.readLong("userId"),
-                                    fieldSet.readLong("movieId"),
-                                    fieldSet.readDouble("rating"),
-                                    ts);
-                        }
-                    })
-                    .build();
+        @StepScope
+        MappedCsvItemReader<Rating> ratingReader(@Value("#{stepExecutionContext['startOffset']}") Long startOffset,
+                                                 @Value("#{stepExecutionContext['endOffset']}") Long endOffset) {
+            // columns: userId, movieId, rating, timestamp
+            MappedCsvItemReader<Rating> reader = new MappedCsvItemReader<>(ratingSource(null, null), startOffset, endOffset, new CsvRowMapper<Rating>() {
+                @Override
+                public Rating mapRow(CsvRow row) {
+                    // epoch seconds in the csv, the current time when the column is empty
+                    Timestamp ts = row.isEmpty(3) ? Timestamp.from(Instant.now()) : EpochSeconds.toTimestamp(row.readLong(3));
+                    return new Rating(row.readLong(0),
+                            row.readLong(1),
+                            row.readDouble(2),
+                            ts);
+                }
+            });
+            reader.setName("csvRatingReader");
+            return reader;
         }
 
         @Bean
         JdbcBatchItemWriter<Rating> ratingWriter() {
-            String sql = "insert into Rating (user_id,movie_id,rating,timestamp) VALUES (?,?,?,?)";
+            String sql = incremental
+                    ? "MERGE INTO Rating (user_id,movie_id,rating,timestamp) KEY (user_id,movie_id) VALUES (?,?,?,?)"
+                    : "insert into Rating (user_id,movie_id,rating,timestamp) VALUES (?,?,?,?)";
             return new JdbcBatchItemWriterBuilder<Rating>()
                     .sql(sql)
                     .dataSource(dataSource)
                     .itemPreparedStatementSetter(new ItemPreparedStatementSetter<Rating>() {
                         @Override
                         public void setValues(Rating item, PreparedStatement ps) throws SQLException {
+                            if (compact) {
+                                // INT ids, TINYINT half stars and INT epoch seconds, see META-INF/orm-compact-rating.xml
+                                ps.setInt(1, Math.toIntExact(item.getUserId()));
+                                ps.setInt(2, Math.toIntExact(item.getMovieId()));
+                                ps.setByte(3, (byte) Math.round(item.getRating() * 2));
+                                ps.setInt(4, Math.toIntExact(EpochSeconds.of(item.getTimestamp())));
+                                return;
+                            }
                             ps.setLong(1, item.getUserId());
                             ps.setLong(2, item.getMovieId());
                             ps.setDouble(3, item.getRating());
@@ -95,21 +164,261 @@ public class RatingLoaderApplication {
         }
 
         @Bean
-        Step csvRatingToDb() {
-            return new StepBuilder("StepCsvRatingToDb", jobRepository)
-                    .<Rating, Rating>chunk(100, platformTransactionManager)
-                    .reader(ratingReader())
+        RejectFile ratingRejectFile(@Value("${ratings.loader.rejectFile:_rejects/ratings-rejected.csv}") String path) {
+            return new RejectFile(path);
+        }
+
+        @Bean
+        @StepScope
+        MovieIdFilter<Rating> ratingMovieFilter() {
+            // one per partition, the movie ids are read once for every partition before it starts
+            return new MovieIdFilter<Rating>("Rating", dataSource, ratingRejectFile(null)) {
+                @Override
+                protected long movieIdOf(Rating item) {
+                    return item.getMovieId();
+                }
+
+                @Override
+                protected String recordOf(Rating item) {
+                    return item.getUserId() + "," + item.getMovieId() + "," + item.getRating() + "," + EpochSeconds.of(item.getTimestamp());
+                }
+            };
+        }
+
+        @Bean
+        MovieRatingStatsRefresh<Rating> movieRatingStatsRefresh() {
+            // one for all partitions, it collects the movies written by every one of them
+            return new MovieRatingStatsRefresh<Rating>("Rating", dataSource, compact) {
+                @Override
+                protected long movieIdOf(Rating item) {
+                    return item.getMovieId();
+                }
+            };
+        }
+
+        @Bean
+        CsvSource ratingSource(@Value("${ratings.loader.file:classpath:data/movielens-ratings-smallfile.csv}") String file,
+                               @Value("${ratings.loader.entry:ratings.csv}") String entry) {
+            return CsvSource.resolve(file, entry);
+        }
+
+        @Bean
+        DeltaCheckpoint ratingCheckpoint() {
+            return new DeltaCheckpoint("rating", ratingSource(null, null), 1, jobExplorer);
+        }
+
+        @Bean
+        @StepScope
+        Partitioner ratingPartitioner(@Value("#{jobExecutionContext['rating.startOffset']}") Long startOffset,
+                                      @Value("#{jobExecutionContext['rating.endOffset']}") Long endOffset) {
+            return new LineAlignedFilePartitioner(ratingSource(null, null), 1,
+                    startOffset != null ? startOffset : 0, endOffset != null ? endOffset : Long.MAX_VALUE);
+        }
+
+        @Bean
+        TaskExecutor ratingTaskExecutor() {
+            SimpleAsyncTaskExecutor taskExecutor = new SimpleAsyncTaskExecutor("rating-loader-");
+            taskExecutor.setConcurrencyLimit(threads);
+            return taskExecutor;
+        }
+
+        @Bean
+        @StepScope
+        AdaptiveCompletionPolicy ratingCompletionPolicy(@Value("${ratings.loader.chunk.initial:100}") Integer initialSize,
+                                                  @Value("${ratings.loader.chunk.min:100}") Integer minSize,
+                                                  @Value("${ratings.loader.chunk.max:20000}") Integer maxSize,
+                                                  @Value("${ratings.loader.chunk.maxCommitMillis:500}") Long maxCommitMillis) {
+            return new AdaptiveCompletionPolicy(initialSize, minSize, maxSize, maxCommitMillis);
+        }
+
+        @Bean
+        @StepScope
+        LoadMetricsListener ratingMetricsListener(@Value("${ratings.loader.progressSeconds:10}") Long progressSeconds) {
+            return new LoadMetricsListener("Rating", ratingReader(null, null), progressSeconds, meterRegistry);
+        }
+
+        @Bean
+        Step csvRatingToDbWorker() {
+            SimpleStepBuilder<Rating, Rating> stepBuilder = new StepBuilder("StepCsvRatingToDbWorker", jobRepository)
+                    .<Rating, Rating>chunk(ratingCompletionPolicy(null, null, null, null), platformTransactionManager)
+                    .reader(ratingReader(null, null))
                     .writer(ratingWriter())
+                    .listener((ChunkListener) ratingCompletionPolicy(null, null, null, null))
+                    .listener((ItemWriteListener<Object>) ratingCompletionPolicy(null, null, null, null))
+                    .listener((StepExecutionListener) ratingCompletionPolicy(null, null, null, null))
+                    .listener((StepExecutionListener) ratingMetricsListener(null))
+                    .listener((ChunkListener) ratingMetricsListener(null))
+                    .listener((ItemReadListener<Object>) ratingMetricsListener(null))
+                    .listener((ItemWriteListener<Object>) ratingMetricsListener(null))
+                    .listener(movieRatingStatsRefresh());
+            if (prefilter) {
+                stepBuilder.processor(ratingMovieFilter())
+                        .listener((StepExecutionListener) ratingMovieFilter());
+            }
+            if (!incremental) {
+                return stepBuilder.build();
+            }
+            // a chunk losing an upsert race on the unique index to another partition is retried and updates the row
+            return stepBuilder.faultTolerant()
+                    .retry(DuplicateKeyException.class)
+                    .retry(PessimisticLockingFailureException.class)
+                    .retryLimit(3)
                     .build();
         }
 
-        private static boolean isNotNullNotEmpty(String str) {
-            return str != null && !str.trim().isEmpty();
+        @Bean
+        Step ratingBulkPrepare() {
+            return new StepBuilder("StepRatingBulkPrepare", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            new ResourceDatabasePopulator(new ClassPathResource("rating-bulk-prepare.sql")).execute(dataSource);
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        Step ratingIndexes() {
+            return new StepBuilder("StepRatingIndexes", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            new ResourceDatabasePopulator(new ClassPathResource("rating-indexes.sql")).execute(dataSource);
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        Step ratingBulkFinish() {
+            String orphanSql = "SELECT COUNT(*) FROM Rating t LEFT JOIN Movie m ON t.movie_id = m.movie_id WHERE m.movie_id IS NULL";
+            return new StepBuilder("StepRatingBulkFinish", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            Long orphans = new JdbcTemplate(dataSource).queryForObject(orphanSql, Long.class);
+                            if (orphans != null && orphans > 0) {
+                                throw new IllegalStateException(String.format("%s rows of Rating reference a movie_id missing from Movie, constraints were not added", orphans));
+                            }
+                            new ResourceDatabasePopulator(new ClassPathResource("rating-bulk-finish.sql")).execute(dataSource);
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        ReferentialChecksOff ratingChecksOff() {
+            return new ReferentialChecksOff("Rating", dataSource, new ClassPathResource("rating-prefilter-open.sql"),
+                    new ClassPathResource("rating-prefilter-close.sql"));
+        }
+
+        @Bean
+        Step movieRatingStats() {
+            return new StepBuilder("StepMovieRatingStats", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            // a restarted run or a full load rebuilds the whole table
+                            JobExecution jobExecution = chunkContext.getStepContext().getStepExecution().getJobExecution();
+                            boolean restarted = jobExplorer.getJobExecutions(jobExecution.getJobInstance()).size() > 1;
+                            movieRatingStatsRefresh().refresh(!incremental || restarted);
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        Step ratingCheckpointOpen() {
+            return new StepBuilder("StepRatingCheckpointOpen", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+                            // MERGE looks rows up by (user_id, movie_id), without an index every upsert scans the table
+                            new ResourceDatabasePopulator(new ClassPathResource("rating-incremental.sql")).execute(dataSource);
+                            ratingCheckpoint().open(chunkContext.getStepContext().getStepExecution().getJobExecution());
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        Step ratingCheckpointClose() {
+            return new StepBuilder("StepRatingCheckpointClose", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            ratingCheckpoint().close(chunkContext.getStepContext().getStepExecution().getJobExecution(), "StepCsvRatingToDb");
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        Step ratingDatasetVersion() {
+            return new StepBuilder("StepRatingDatasetVersion", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            new DatasetVersion("Rating", dataSource).bump();
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        Flow ratingFlow() {
+            FlowBuilder<SimpleFlow> flowBuilder = new FlowBuilder<>("FlowRating");
+            List<Step> steps = new ArrayList<>();
+            if (incremental) {
+                steps.add(ratingCheckpointOpen());
+            }
+            if (bulk) {
+                steps.add(ratingBulkPrepare());
+            }
+            steps.add(csvRatingToDb());
+            steps.add(ratingIndexes());
+            if (bulk) {
+                steps.add(ratingBulkFinish());
+            }
+            steps.add(movieRatingStats());
+            if (incremental) {
+                steps.add(ratingCheckpointClose());
+            }
+            steps.add(ratingDatasetVersion());
+            flowBuilder.start(steps.get(0));
+            for (Step step : steps.subList(1, steps.size())) {
+                flowBuilder.next(step);
+            }
+            return flowBuilder.build();
+        }
+
+        @Bean
+        Step csvRatingToDb() {
+            // one worker step per line aligned byte range of the csv file, run on the rating thread pool
+            PartitionStepBuilder stepBuilder = new StepBuilder("StepCsvRatingToDb", jobRepository)
+                    .partitioner("StepCsvRatingToDbWorker", ratingPartitioner(null, null))
+                    .step(csvRatingToDbWorker())
+                    .gridSize(gridSize)
+                    .taskExecutor(ratingTaskExecutor());
+            if (prefilter && !bulk) {
+                // the bulk mode has no foreign key to turn off during the load
+                stepBuilder.listener(ratingChecksOff());
+            }
+            return stepBuilder.build();
         }
     }
 }
 
 @Entity
+// the secondary indexes are not declared here, Hibernate would create them before the load, see rating-indexes.sql
 @Table(name = "Rating")
 class Rating {
     @Id
@@ -172,4 +481,44 @@ class Rating {
     public void setTimestamp(Timestamp timestamp) {
         this.timestamp = timestamp;
     }
-}
\ No newline at end of file
+}
+/**
+ * Aggregates of the ratings of one movie, in half stars, written with SQL by {@link MovieRatingStatsRefresh} after
+ * every load. The entity is only here for the schema, the service reads it by primary key.
+ */
+@Entity
+@Table(name = "MovieRatingStats")
+class MovieRatingStats {
+    @Id
+    @Column(name = "movie_id")
+    Long movieId;
+    @Column(name = "rating_count")
+    Long ratingCount;
+    @Column(name = "half_star_sum")
+    Long halfStarSum;
+    @Column(name = "half_star_square_sum")
+    Long halfStarSquareSum;
+    // histogram, half_stars_n counts the ratings of n half stars, from 0.5 to 5.0
+    @Column(name = "half_stars_1")
+    Long halfStars1;
+    @Column(name = "half_stars_2")
+    Long halfStars2;
+    @Column(name = "half_stars_3")
+    Long halfStars3;
+    @Column(name = "half_stars_4")
+    Long halfStars4;
+    @Column(name = "half_stars_5")
+    Long halfStars5;
+    @Column(name = "half_stars_6")
+    Long halfStars6;
+    @Column(name = "half_stars_7")
+    Long halfStars7;
+    @Column(name = "half_stars_8")
+    Long halfStars8;
+    @Column(name = "half_stars_9")
+    Long halfStars9;
+    @Column(name = "half_stars_10")
+    Long halfStars10;
+
+    public MovieRatingStats() {}
+}
@@ -0,0 +1,104 @@
+package com.play.ratings.loader.util;
+
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.item.Chunk;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Keeps MovieRatingStats, one row of aggregates per rated movie, in line with Rating: the number of ratings, the
+ * sum and the sum of squares of the ratings and a histogram of the ten half star values. Everything is counted in
+ * half stars, 3.5 is 7, so the sums are exact integers in both the wide and the compact layout of Rating, and the
+ * service derives the mean and the variance from them without reading a single rating.
+ * <p>
+ * Register it as a listener of the loading step, it remembers the movie_id of every row written. Once the load is
+ * done {@link #refresh(boolean)} recomputes the rows of those movies only, one MERGE per movie over its ratings
+ * through IDX_RATING_BY_MOVIE, so an incremental run costs the movies it touched and an upsert that changed a
+ * rating is counted with its new value. A full refresh rebuilds the table in one scan of Rating instead. Shared by
+ * every partition of the step. Subclasses tell where the movie_id of a row is.
+ */
+public abstract class MovieRatingStatsRefresh<T> implements ItemWriteListener<T> {
+    private static final String COLUMNS = "movie_id, rating_count, half_star_sum, half_star_square_sum, "
+            + "half_stars_1, half_stars_2, half_stars_3, half_stars_4, half_stars_5, "
+            + "half_stars_6, half_stars_7, half_stars_8, half_stars_9, half_stars_10";
+    private static final String AGGREGATES = "SELECT movie_id, COUNT(*), SUM(h), SUM(h * h), "
+            + "COUNT(CASE WHEN h = 1 THEN 1 END), COUNT(CASE WHEN h = 2 THEN 1 END), COUNT(CASE WHEN h = 3 THEN 1 END), "
+            + "COUNT(CASE WHEN h = 4 THEN 1 END), COUNT(CASE WHEN h = 5 THEN 1 END), COUNT(CASE WHEN h = 6 THEN 1 END), "
+            + "COUNT(CASE WHEN h = 7 THEN 1 END), COUNT(CASE WHEN h = 8 THEN 1 END), COUNT(CASE WHEN h = 9 THEN 1 END), "
+            + "COUNT(CASE WHEN h = 10 THEN 1 END) "
+            + "FROM (SELECT movie_id, %s AS h FROM Rating%s) r GROUP BY movie_id";
+    private static final String COUNT_SQL = "SELECT COUNT(*) FROM MovieRatingStats";
+    private static final String DELETE_SQL = "DELETE FROM MovieRatingStats";
+    private static final int BATCH_SIZE = 1000;
+
+    private final String loader;
+    private final JdbcTemplate jdbcTemplate;
+    private final String insertSql;
+    private final String mergeSql;
+    private final BitSet movieIds = new BitSet();
+
+    /**
+     * @param compact true when Rating stores half stars as a TINYINT, see META-INF/orm-compact-rating.xml
+     */
+    protected MovieRatingStatsRefresh(String loader, DataSource dataSource, boolean compact) {
+        this.loader = loader;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        String halfStars = compact ? "rating" : "CAST(ROUND(rating * 2) AS INT)";
+        this.insertSql = "INSERT INTO MovieRatingStats (" + COLUMNS + ") " + String.format(AGGREGATES, halfStars, "");
+        this.mergeSql = "MERGE INTO MovieRatingStats (" + COLUMNS + ") KEY (movie_id) "
+                + String.format(AGGREGATES, halfStars, " WHERE movie_id = ?");
+    }
+
+    protected abstract long movieIdOf(T item);
+
+    @Override
+    public void afterWrite(Chunk<? extends T> items) {
+        // a chunk rolled back after this only makes the refresh recompute a movie that did not change
+        synchronized (movieIds) {
+            for (T item : items) {
+                movieIds.set(Math.toIntExact(movieIdOf(item)));
+            }
+        }
+    }
+
+    /**
+     * Recomputes the rows of the movies written since the last refresh, or the whole table when full is true or the
+     * table is still empty, on a database loaded before MovieRatingStats existed for example. Returns the number of
+     * movies refreshed.
+     */
+    public int refresh(boolean full) {
+        BitSet written;
+        synchronized (movieIds) {
+            written = (BitSet) movieIds.clone();
+            movieIds.clear();
+        }
+        long start = System.currentTimeMillis();
+        int refreshed;
+        Long rows = jdbcTemplate.queryForObject(COUNT_SQL, Long.class);
+        boolean rebuild = full || rows == null || rows == 0;
+        if (rebuild) {
+            jdbcTemplate.update(DELETE_SQL);
+            refreshed = jdbcTemplate.update(insertSql);
+        } else {
+            List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+            for (int movieId = written.nextSetBit(0); movieId >= 0; movieId = written.nextSetBit(movieId + 1)) {
+                batch.add(new Object[]{movieId});
+                if (batch.size() == BATCH_SIZE) {
+                    jdbcTemplate.batchUpdate(mergeSql, batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                jdbcTemplate.batchUpdate(mergeSql, batch);
+            }
+            refreshed = written.cardinality();
+        }
+        System.out.println(String.format("[%s] MovieRatingStats %s refresh of %s movies in %s ms",
+                loader, rebuild ? "full" : "incremental", refreshed, System.currentTimeMillis() - start));
+        return refreshed;
+    }
+}
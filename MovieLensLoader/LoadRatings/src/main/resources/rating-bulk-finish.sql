@@ -0,0 +1,2 @@
+-- Bulk load: the foreign key of Rating is added back and checked against Movie.
+ALTER TABLE Rating ADD CONSTRAINT IF NOT EXISTS FK_RATING_MOVIE FOREIGN KEY (movie_id) REFERENCES Movie(movie_id);
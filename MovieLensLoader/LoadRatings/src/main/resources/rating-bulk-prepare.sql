@@ -0,0 +1,16 @@
+-- Bulk load: Rating is filled without its foreign key or secondary indexes, see rating-bulk-finish.sql and rating-indexes.sql.
+CREATE TABLE IF NOT EXISTS Rating (
+    rating_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id BIGINT,
+    movie_id BIGINT,
+    rating DOUBLE,
+    timestamp TIMESTAMP
+);
+
+ALTER TABLE Rating DROP CONSTRAINT IF EXISTS FK_RATING_MOVIE;
+DROP INDEX IF EXISTS IDX_RATING_BY_USER;
+DROP INDEX IF EXISTS IDX_RATING_BY_MOVIE;
+DROP INDEX IF EXISTS IDX_RATING_BY_RATING;
+-- single column indexes of earlier versions, replaced by the ones above
+DROP INDEX IF EXISTS IDX_RATING_MOVIE;
+DROP INDEX IF EXISTS IDX_RATING_USER;
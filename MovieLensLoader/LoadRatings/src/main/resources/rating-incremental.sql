@@ -0,0 +1,2 @@
+-- Incremental load: the MERGE ... KEY (user_id, movie_id) upserts look rows up here, reload a Rating table holding duplicates first.
+CREATE UNIQUE INDEX IF NOT EXISTS UX_RATING_USER_MOVIE ON Rating(user_id, movie_id);
@@ -0,0 +1,4 @@
+-- Secondary indexes of Rating, built after the load step: the listings by user and by movie page in rating_id order.
+CREATE INDEX IF NOT EXISTS IDX_RATING_BY_USER ON Rating(user_id, rating_id);
+CREATE INDEX IF NOT EXISTS IDX_RATING_BY_MOVIE ON Rating(movie_id, rating_id);
+CREATE INDEX IF NOT EXISTS IDX_RATING_BY_RATING ON Rating(rating);
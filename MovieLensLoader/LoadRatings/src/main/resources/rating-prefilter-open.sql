@@ -0,0 +1,2 @@
+-- Prefilter: the rows were already checked against Movie by MovieIdFilter, see ReferentialChecksOff.
+ALTER TABLE Rating SET REFERENTIAL_INTEGRITY FALSE;
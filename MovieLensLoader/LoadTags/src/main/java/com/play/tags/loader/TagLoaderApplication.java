@@ -1,32 +1,62 @@
 package com.play.tags.loader;
 
+import com.play.common.loader.util.AdaptiveCompletionPolicy;
+import com.play.common.loader.util.CsvRow;
+import com.play.common.loader.util.CsvRowMapper;
+import com.play.common.loader.util.CsvSource;
+import com.play.common.loader.util.DatasetVersion;
+import com.play.common.loader.util.DeltaCheckpoint;
+import com.play.common.loader.util.EpochSeconds;
+import com.play.common.loader.util.LoadMetricsListener;
+import com.play.common.loader.util.MappedCsvItemReader;
+import com.play.common.loader.util.MovieIdFilter;
+import com.play.common.loader.util.ReferentialChecksOff;
+import com.play.common.loader.util.RejectFile;
+import com.play.tags.loader.util.TagDictionary;
 import jakarta.persistence.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
 import org.springframework.batch.core.Job;
+import org.springframework.batch.core.StepContribution;
 import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.job.builder.FlowBuilder;
 import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.job.flow.Flow;
+import org.springframework.batch.core.job.flow.support.SimpleFlow;
 import org.springframework.batch.core.launch.support.RunIdIncrementer;
 import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.builder.SimpleStepBuilder;
 import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
 import org.springframework.batch.item.database.ItemPreparedStatementSetter;
 import org.springframework.batch.item.database.JdbcBatchItemWriter;
 import org.springframework.batch.item.database.builder.JdbcBatchItemWriterBuilder;
-import org.springframework.batch.item.file.FlatFileItemReader;
-import org.springframework.batch.item.file.builder.FlatFileItemReaderBuilder;
-import org.springframework.batch.item.file.mapping.FieldSetMapper;
-import org.springframework.batch.item.file.transform.FieldSet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 import org.springframework.transaction.PlatformTransactionManager;
-import org.springframework.validation.BindException;
 
 import javax.sql.DataSource;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 @SpringBootApplication
 public class TagLoaderApplication {
@@ -38,84 +68,303 @@ public class TagLoaderApplication {
     Job job(TagBatchConfig tagBatchConfig) {
         return new JobBuilder("JobCsvTagToDb", tagBatchConfig.jobRepository)
                 .incrementer(new RunIdIncrementer())
-                .start(tagBatchConfig.csvTagToDb())
+                .start(tagBatchConfig.tagFlow())
+                .end()
                 .build();
     }
 
     @Configuration
-    class TagBatchConfig {
+    static class TagBatchConfig {
         private JobRepository jobRepository;
         private PlatformTransactionManager platformTransactionManager;
         private DataSource dataSource;
+        private MeterRegistry meterRegistry;
+        private JobExplorer jobExplorer;
+        private boolean bulk;
+        private boolean incremental;
+        private boolean prefilter;
+        private boolean compact;
 
-        public TagBatchConfig(JobRepository jobRepository, PlatformTransactionManager platformTransactionManager, DataSource dataSource) {
+        public TagBatchConfig(JobRepository jobRepository, PlatformTransactionManager platformTransactionManager, DataSource dataSource,
+                              MeterRegistry meterRegistry,
+                              JobExplorer jobExplorer,
+                              @Value("${tags.loader.bulk:false}") boolean bulk,
+                              @Value("${tags.loader.incremental:false}") boolean incremental,
+                              @Value("${tags.loader.prefilter:true}") boolean prefilter,
+                              @Value("${tags.loader.compact:false}") boolean compact) {
             this.jobRepository = jobRepository;
             this.platformTransactionManager = platformTransactionManager;
             this.dataSource = dataSource;
+            this.meterRegistry = meterRegistry;
+            this.jobExplorer = jobExplorer;
+            this.bulk = bulk;
+            this.incremental = incremental;
+            this.prefilter = prefilter;
+            this.compact = compact;
         }
 
         @Bean
-        FlatFileItemReader<Tag> tagReader() {
-            return new FlatFileItemReaderBuilder<Tag>()
-                    .name("csvTagReader")
-                    .resource(new ClassPathResource("data/movielens-tags-bigfile.csv"))
-                    .delimited().delimiter(",")
-                    .names("userId", "movieId", "tag", "timestamp")
-                    .linesToSkip(1)
-                    .fieldSetMapper(new FieldSetMapper<Tag>() {
-                        @Override
-                        public Tag mapFieldSet(FieldSet fieldSet) throws BindException {
-                            long ts = fieldSet.readLong("timestamp");
-                            long epochMilli = Instant.now().toEpochMilli();
-                            Timestamp timestamp = (isNotNullNotEmpty(String.valueOf(ts))) ? new Timestamp(ts) : new Timestamp(epochMilli); // if null then keep current time.
-                            Tag tag = new Tag(fieldSet.readLong("userId"),
-                                    fieldSet.readLong("movieId"),
-                                    fieldSet.readString("tag"),
-                                    timestamp);
-
-                            return tag;
-                        }
-                    })
-                    .build();
+        CsvSource tagSource(@Value("${tags.loader.file:classpath:data/movielens-tags-bigfile.csv}") String file,
+                            @Value("${tags.loader.entry:tags.csv}") String entry) {
+            return CsvSource.resolve(file, entry);
+        }
+
+        @Bean
+        DeltaCheckpoint tagCheckpoint() {
+            return new DeltaCheckpoint("tag", tagSource(null, null), 1, jobExplorer);
+        }
+
+        @Bean
+        @StepScope
+        MappedCsvItemReader<Tag> tagReader(@Value("#{jobExecutionContext['tag.startOffset']}") Long startOffset,
+                                           @Value("#{jobExecutionContext['tag.endOffset']}") Long endOffset) {
+            long start = startOffset != null ? startOffset : 0;
+            long end = endOffset != null ? endOffset : Long.MAX_VALUE;
+            // columns: userId, movieId, tag, timestamp
+            MappedCsvItemReader<Tag> reader = new MappedCsvItemReader<>(tagSource(null, null), start, end, new CsvRowMapper<Tag>() {
+                @Override
+                public Tag mapRow(CsvRow row) {
+                    // epoch seconds in the csv, if null then keep current time.
+                    Timestamp timestamp = row.isEmpty(3) ? Timestamp.from(Instant.now()) : EpochSeconds.toTimestamp(row.readLong(3));
+                    Tag tag = new Tag(row.readLong(0),
+                            row.readLong(1),
+                            tagDictionary().idOf(row.readString(2)), // the row only keeps the vocabulary id
+                            timestamp);
 
+                    return tag;
+                }
+            });
+            reader.setName("csvTagReader");
+            reader.setLinesToSkip(start == 0 ? 1 : 0);
+            return reader;
         }
 
         @Bean
-        JdbcBatchItemWriter<Tag> tagWriter() {
-            String sql = "INSERT INTO Tag (user_id, movie_id, tag, timestamp) VALUES (?,?,?,?)";
-            return new JdbcBatchItemWriterBuilder<Tag>()
+        RejectFile tagRejectFile(@Value("${tags.loader.rejectFile:_rejects/tags-rejected.csv}") String path) {
+            return new RejectFile(path);
+        }
+
+        @Bean
+        @StepScope
+        MovieIdFilter<Tag> tagMovieFilter() {
+            return new MovieIdFilter<Tag>("Tag", dataSource, tagRejectFile(null)) {
+                @Override
+                protected long movieIdOf(Tag item) {
+                    return item.getMovieId();
+                }
+
+                @Override
+                protected String recordOf(Tag item) {
+                    // the tag as it was normalized into the vocabulary
+                    String tag = tagDictionary().nameOf(item.getTagVocabularyId()).replace("\"", "\"\"");
+                    return item.getUserId() + "," + item.getMovieId() + ",\"" + tag + "\"," + EpochSeconds.of(item.getTimestamp());
+                }
+            };
+        }
+
+        @Bean
+        TagDictionary tagDictionary() {
+            return new TagDictionary(dataSource);
+        }
+
+        @Bean
+        ItemWriter<Tag> tagWriter() {
+            String sql = incremental
+                    ? "MERGE INTO Tag (user_id, movie_id, tag_vocabulary_id, timestamp) KEY (user_id, movie_id, tag_vocabulary_id) VALUES (?,?,?,?)"
+                    : "INSERT INTO Tag (user_id, movie_id, tag_vocabulary_id, timestamp) VALUES (?,?,?,?)";
+            JdbcBatchItemWriter<Tag> rowWriter = new JdbcBatchItemWriterBuilder<Tag>()
                     .sql(sql)
                     .dataSource(dataSource)
                     .itemPreparedStatementSetter(new ItemPreparedStatementSetter<Tag>() {
                         @Override
                         public void setValues(Tag item, PreparedStatement ps) throws SQLException {
-                            System.out.println("insert");
+                            if (compact) {
+                                // INT ids and INT epoch seconds, see META-INF/orm-compact-tag.xml
+                                ps.setInt(1, Math.toIntExact(item.getUserId()));
+                                ps.setInt(2, Math.toIntExact(item.getMovieId()));
+                                ps.setInt(3, item.getTagVocabularyId());
+                                ps.setInt(4, Math.toIntExact(EpochSeconds.of(item.getTimestamp())));
+                                return;
+                            }
                             ps.setLong(1, item.getUserId());
                             ps.setLong(2, item.getMovieId());
-                            ps.setString(3, item.getTag());
+                            ps.setInt(3, item.getTagVocabularyId());
                             ps.setTimestamp(4, item.getTimestamp());
                         }
                     })
                     .build();
+            return new ItemWriter<Tag>() {
+                @Override
+                public void write(Chunk<? extends Tag> chunk) throws Exception {
+                    // vocabulary entries first, in the same transaction as the rows using them
+                    tagDictionary().flush();
+                    rowWriter.write(chunk);
+                }
+            };
+        }
 
+        @Bean
+        Step tagBulkPrepare() {
+            return new StepBuilder("StepTagBulkPrepare", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            new ResourceDatabasePopulator(new ClassPathResource("tag-bulk-prepare.sql")).execute(dataSource);
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
         }
 
         @Bean
-        Step csvTagToDb() {
-            return new StepBuilder("StepCsvToDb", jobRepository)
-                    .<Tag, Tag>chunk(100, platformTransactionManager)
-                    .reader(tagReader())
-                    .writer(tagWriter())
+        Step tagIndexes() {
+            return new StepBuilder("StepTagIndexes", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            new ResourceDatabasePopulator(new ClassPathResource("tag-indexes.sql")).execute(dataSource);
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        Step tagBulkFinish() {
+            String orphanSql = "SELECT COUNT(*) FROM Tag t LEFT JOIN Movie m ON t.movie_id = m.movie_id WHERE m.movie_id IS NULL";
+            return new StepBuilder("StepTagBulkFinish", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            Long orphans = new JdbcTemplate(dataSource).queryForObject(orphanSql, Long.class);
+                            if (orphans != null && orphans > 0) {
+                                throw new IllegalStateException(String.format("%s rows of Tag reference a movie_id missing from Movie, constraints were not added", orphans));
+                            }
+                            new ResourceDatabasePopulator(new ClassPathResource("tag-bulk-finish.sql")).execute(dataSource);
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        @StepScope
+        AdaptiveCompletionPolicy tagCompletionPolicy(@Value("${tags.loader.chunk.initial:100}") Integer initialSize,
+                                                  @Value("${tags.loader.chunk.min:10}") Integer minSize,
+                                                  @Value("${tags.loader.chunk.max:2000}") Integer maxSize,
+                                                  @Value("${tags.loader.chunk.maxCommitMillis:500}") Long maxCommitMillis) {
+            return new AdaptiveCompletionPolicy(initialSize, minSize, maxSize, maxCommitMillis);
+        }
+
+        @Bean
+        ReferentialChecksOff tagChecksOff() {
+            return new ReferentialChecksOff("Tag", dataSource, new ClassPathResource("tag-prefilter-open.sql"),
+                    new ClassPathResource("tag-prefilter-close.sql"));
+        }
+
+        @Bean
+        Step tagCheckpointOpen() {
+            return new StepBuilder("StepTagCheckpointOpen", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+                            // MERGE looks rows up by (user_id, movie_id, tag_vocabulary_id), without an index every upsert scans the table
+                            new ResourceDatabasePopulator(new ClassPathResource("tag-incremental.sql")).execute(dataSource);
+                            tagCheckpoint().open(chunkContext.getStepContext().getStepExecution().getJobExecution());
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
                     .build();
         }
 
-        private static boolean isNotNullNotEmpty(String str) {
-            return str != null && !str.trim().isEmpty();
+        @Bean
+        Step tagCheckpointClose() {
+            return new StepBuilder("StepTagCheckpointClose", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            tagCheckpoint().close(chunkContext.getStepContext().getStepExecution().getJobExecution(), "StepCsvToDb");
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        Step tagDatasetVersion() {
+            return new StepBuilder("StepTagDatasetVersion", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                            new DatasetVersion("Tag", dataSource).bump();
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+
+        @Bean
+        Flow tagFlow() {
+            FlowBuilder<SimpleFlow> flowBuilder = new FlowBuilder<>("FlowTag");
+            List<Step> steps = new ArrayList<>();
+            if (incremental) {
+                steps.add(tagCheckpointOpen());
+            }
+            if (bulk) {
+                steps.add(tagBulkPrepare());
+            }
+            steps.add(csvTagToDb());
+            steps.add(tagIndexes());
+            if (bulk) {
+                steps.add(tagBulkFinish());
+            }
+            if (incremental) {
+                steps.add(tagCheckpointClose());
+            }
+            steps.add(tagDatasetVersion());
+            flowBuilder.start(steps.get(0));
+            for (Step step : steps.subList(1, steps.size())) {
+                flowBuilder.next(step);
+            }
+            return flowBuilder.build();
+        }
+
+        @Bean
+        @StepScope
+        LoadMetricsListener tagMetricsListener(@Value("${tags.loader.progressSeconds:10}") Long progressSeconds) {
+            return new LoadMetricsListener("Tag", tagReader(null, null), progressSeconds, meterRegistry);
+        }
+
+        @Bean
+        Step csvTagToDb() {
+            SimpleStepBuilder<Tag, Tag> stepBuilder = new StepBuilder("StepCsvToDb", jobRepository)
+                    .<Tag, Tag>chunk(tagCompletionPolicy(null, null, null, null), platformTransactionManager)
+                    .reader(tagReader(null, null))
+                    .writer(tagWriter())
+                    .listener((ChunkListener) tagCompletionPolicy(null, null, null, null))
+                    .listener((ItemWriteListener<Object>) tagCompletionPolicy(null, null, null, null))
+                    .listener((StepExecutionListener) tagCompletionPolicy(null, null, null, null))
+                    .listener((StepExecutionListener) tagDictionary())
+                    .listener((ChunkListener) tagDictionary())
+                    .listener((StepExecutionListener) tagMetricsListener(null))
+                    .listener((ChunkListener) tagMetricsListener(null))
+                    .listener((ItemReadListener<Object>) tagMetricsListener(null))
+                    .listener((ItemWriteListener<Object>) tagMetricsListener(null));
+            if (prefilter) {
+                stepBuilder.processor(tagMovieFilter())
+                        .listener((StepExecutionListener) tagMovieFilter());
+            }
+            if (prefilter && !bulk) {
+                // the bulk mode has no foreign key to turn off during the load
+                stepBuilder.listener((StepExecutionListener) tagChecksOff());
+            }
+            return stepBuilder.build();
         }
     }
 }
 
 @Entity
+// the secondary indexes are not declared here, Hibernate would create them before the load, see tag-indexes.sql
 @Table(name = "Tag")
 class Tag {
     @Id
@@ -126,18 +375,18 @@ class Tag {
     Long userId;
     @Column(name = "movie_id")
     Long movieId;
-    @Column(name = "tag")
-    String tag;
+    @Column(name = "tag_vocabulary_id")
+    Integer tagVocabularyId;
     @Column(name = "timestamp")
     Timestamp timestamp;
 
     public Tag() {
     }
 
-    public Tag(Long userId, Long movieId, String tag, Timestamp timestamp) {
+    public Tag(Long userId, Long movieId, Integer tagVocabularyId, Timestamp timestamp) {
         this.userId = userId;
         this.movieId = movieId;
-        this.tag = tag;
+        this.tagVocabularyId = tagVocabularyId;
         this.timestamp = timestamp;
     }
 
@@ -165,12 +414,12 @@ class Tag {
         this.movieId = movieId;
     }
 
-    public String getTag() {
-        return tag;
+    public Integer getTagVocabularyId() {
+        return tagVocabularyId;
     }
 
-    public void setTag(String tag) {
-        this.tag = tag;
+    public void setTagVocabularyId(Integer tagVocabularyId) {
+        this.tagVocabularyId = tagVocabularyId;
     }
 
     public Timestamp getTimestamp() {
@@ -187,8 +436,50 @@ class Tag {
                 "tagId=" + tagId +
                 ", userId=" + userId +
                 ", movieId=" + movieId +
-                ", tag='" + tag + '\'' +
+                ", tagVocabularyId=" + tagVocabularyId +
                 ", timestamp=" + timestamp +
                 '}';
     }
 }
+
+@Entity
+@Table(name = "TagVocabulary", uniqueConstraints = @UniqueConstraint(name = "UX_TAG_VOCABULARY_TAG", columnNames = "tag"))
+class TagVocabulary {
+    @Id
+    @Column(name = "tag_vocabulary_id")
+    Integer tagVocabularyId;
+    @Column(name = "tag")
+    String tag;
+
+    public TagVocabulary() {
+    }
+
+    public TagVocabulary(Integer tagVocabularyId, String tag) {
+        this.tagVocabularyId = tagVocabularyId;
+        this.tag = tag;
+    }
+
+    public Integer getTagVocabularyId() {
+        return tagVocabularyId;
+    }
+
+    public void setTagVocabularyId(Integer tagVocabularyId) {
+        this.tagVocabularyId = tagVocabularyId;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+
+    @Override
+    public String toString() {
+        return "TagVocabulary{" +
+                "tagVocabularyId=" + tagVocabularyId +
+                ", tag='" + tag + '\'' +
+                '}';
+    }
+}
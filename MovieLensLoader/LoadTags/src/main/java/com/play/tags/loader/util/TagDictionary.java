@@ -0,0 +1,44 @@
+package com.play.tags.loader.util;
+
+import com.play.common.loader.util.NameDictionary;
+
+import javax.sql.DataSource;
+import java.util.Locale;
+
+/**
+ * Dictionary of the tag vocabulary, built while the tags are loaded. Every tag is normalized and given an integer
+ * id, so the Tag rows only store the id and the text is kept once in the TagVocabulary table.
+ */
+public class TagDictionary extends NameDictionary {
+
+    public TagDictionary(DataSource dataSource) {
+        super(dataSource, "TagVocabulary", "tag_vocabulary_id", "tag");
+    }
+
+    /**
+     * Trims the tag, collapses runs of blanks to one space and lower cases it, so "Dark  Comedy" and "dark comedy"
+     * share one entry. The service normalizes the tags it is asked for the same way.
+     */
+    public static String normalize(String tag) {
+        StringBuilder normalized = new StringBuilder(tag.length());
+        boolean blank = false;
+        for (int i = 0; i < tag.length(); i++) {
+            char c = tag.charAt(i);
+            if (Character.isWhitespace(c)) {
+                blank = normalized.length() > 0;
+                continue;
+            }
+            if (blank) {
+                normalized.append(' ');
+                blank = false;
+            }
+            normalized.append(c);
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public int idOf(String tag) {
+        return super.idOf(normalize(tag));
+    }
+}
@@ -0,0 +1,2 @@
+-- Bulk load: the foreign key of Tag is added back and checked against Movie.
+ALTER TABLE Tag ADD CONSTRAINT IF NOT EXISTS FK_TAG_MOVIE FOREIGN KEY (movie_id) REFERENCES Movie(movie_id);
@@ -0,0 +1,22 @@
+-- Bulk load: Tag is filled without its foreign key or secondary indexes, see tag-bulk-finish.sql and tag-indexes.sql.
+CREATE TABLE IF NOT EXISTS Tag (
+    tag_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id BIGINT,
+    movie_id BIGINT,
+    tag_vocabulary_id INTEGER,
+    timestamp TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS TagVocabulary (
+    tag_vocabulary_id INTEGER PRIMARY KEY,
+    tag VARCHAR(255),
+    CONSTRAINT UX_TAG_VOCABULARY_TAG UNIQUE (tag)
+);
+
+ALTER TABLE Tag DROP CONSTRAINT IF EXISTS FK_TAG_MOVIE;
+DROP INDEX IF EXISTS IDX_TAG_BY_USER;
+DROP INDEX IF EXISTS IDX_TAG_BY_MOVIE;
+DROP INDEX IF EXISTS IDX_TAG_VOCABULARY;
+-- single column indexes of earlier versions, replaced by the ones above
+DROP INDEX IF EXISTS IDX_TAG_MOVIE;
+DROP INDEX IF EXISTS IDX_TAG_USER;
@@ -0,0 +1,2 @@
+-- Incremental load: the MERGE ... KEY (user_id, movie_id, tag_vocabulary_id) upserts look rows up here, reload a Tag table holding duplicates first.
+CREATE UNIQUE INDEX IF NOT EXISTS UX_TAG_USER_MOVIE_TAG ON Tag(user_id, movie_id, tag_vocabulary_id);
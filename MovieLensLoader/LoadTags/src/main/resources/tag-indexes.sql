@@ -0,0 +1,4 @@
+-- Secondary indexes of Tag, built after the load step: the listings by user and by movie page in tag_id order.
+CREATE INDEX IF NOT EXISTS IDX_TAG_BY_USER ON Tag(user_id, tag_id);
+CREATE INDEX IF NOT EXISTS IDX_TAG_BY_MOVIE ON Tag(movie_id, tag_id);
+CREATE INDEX IF NOT EXISTS IDX_TAG_VOCABULARY ON Tag(tag_vocabulary_id);
@@ -0,0 +1,2 @@
+-- Prefilter: the checks are turned back on without validating the rows again, see ReferentialChecksOff.
+ALTER TABLE Tag SET REFERENTIAL_INTEGRITY TRUE NOCHECK;
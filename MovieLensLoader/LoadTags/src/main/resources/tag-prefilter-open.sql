@@ -0,0 +1,2 @@
+-- Prefilter: the rows were already checked against Movie by MovieIdFilter, see ReferentialChecksOff.
+ALTER TABLE Tag SET REFERENTIAL_INTEGRITY FALSE;
@@ -0,0 +1,136 @@
+package com.play.als.trainer;
+
+import com.play.als.trainer.util.AlsSolver;
+import com.play.als.trainer.util.FactorFile;
+import com.play.als.trainer.util.RatingMatrix;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.launch.support.RunIdIncrementer;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+
+@SpringBootApplication
+public class AlsTrainerApplication {
+    public static void main(String[] args) {
+        SpringApplication.run(AlsTrainerApplication.class, args);
+    }
+
+    @Bean
+    Job job(AlsBatchConfig alsBatchConfig) {
+        return new JobBuilder("jobAlsTraining", alsBatchConfig.jobRepository)
+                .incrementer(new RunIdIncrementer())
+                .start(alsBatchConfig.trainAls())
+                .build();
+    }
+
+    @Configuration
+    static class AlsBatchConfig {
+        private JobRepository jobRepository;
+        private PlatformTransactionManager platformTransactionManager;
+        private DataSource dataSource;
+        private int factors;
+        private int iterations;
+        private double lambda;
+        private boolean implicit;
+        private double alpha;
+        private double holdout;
+        private int threads;
+        private long seed;
+        private String factorFile;
+        private boolean compact;
+
+        public AlsBatchConfig(JobRepository jobRepository, PlatformTransactionManager platformTransactionManager, DataSource dataSource,
+                              @Value("${als.trainer.factors:20}") int factors,
+                              @Value("${als.trainer.iterations:10}") int iterations,
+                              @Value("${als.trainer.lambda:0.05}") double lambda,
+                              @Value("${als.trainer.implicit:false}") boolean implicit,
+                              @Value("${als.trainer.alpha:10}") double alpha,
+                              @Value("${als.trainer.holdout:0.1}") double holdout,
+                              @Value("${als.trainer.threads:0}") int threads,
+                              @Value("${als.trainer.seed:42}") long seed,
+                              @Value("${als.trainer.factorFile:_model/als-factors.bin}") String factorFile,
+                              @Value("${als.trainer.compact:false}") boolean compact) {
+            this.jobRepository = jobRepository;
+            this.platformTransactionManager = platformTransactionManager;
+            this.dataSource = dataSource;
+            this.factors = factors;
+            this.iterations = iterations;
+            this.lambda = lambda;
+            this.implicit = implicit;
+            this.alpha = alpha;
+            this.holdout = holdout;
+            this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+            this.seed = seed;
+            this.factorFile = factorFile;
+            this.compact = compact;
+        }
+
+        @Bean
+        Step trainAls() {
+            // the rating in half stars, the compact layout stores them as they are
+            String halfStars = compact ? "rating" : "CAST(ROUND(rating * 2) AS TINYINT)";
+            String ratingsSql = "SELECT user_id, movie_id, " + halfStars + " FROM Rating";
+            return new StepBuilder("StepTrainAls", jobRepository)
+                    .tasklet(new Tasklet() {
+                        @Override
+                        public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+                            long start = System.currentTimeMillis();
+                            RatingMatrix matrix = RatingMatrix.read(new JdbcTemplate(dataSource), ratingsSql, holdout);
+                            long readMillis = System.currentTimeMillis() - start;
+                            System.out.println(String.format("[Als] %s training and %s held out ratings of %s users and %s movies read in %s ms",
+                                    matrix.trainingCount(), matrix.testStars.length, matrix.userIds.length, matrix.movieIds.length, readMillis));
+
+                            ForkJoinPool pool = new ForkJoinPool(threads);
+                            AlsSolver solver = new AlsSolver(matrix, factors, lambda, implicit, alpha, pool, seed);
+                            long trainStart = System.currentTimeMillis();
+                            double trainingRmse = Double.NaN;
+                            double testRmse = Double.NaN;
+                            try {
+                                for (int iteration = 1; iteration <= iterations; iteration++) {
+                                    long iterationStart = System.currentTimeMillis();
+                                    solver.iterate();
+                                    long iterationMillis = System.currentTimeMillis() - iterationStart;
+                                    trainingRmse = solver.trainingRmse();
+                                    testRmse = solver.testRmse();
+                                    System.out.println(String.format("[Als] iteration %s/%s in %s ms, training RMSE %.4f, test RMSE %.4f",
+                                            iteration, iterations, iterationMillis, trainingRmse, testRmse));
+                                }
+                            } finally {
+                                pool.shutdown();
+                            }
+                            long trainMillis = System.currentTimeMillis() - trainStart;
+                            long bytes = FactorFile.write(Paths.get(factorFile), matrix, solver, factors, testRmse);
+
+                            // kept with the step in the job repository, next to the parameters of the run
+                            ExecutionContext context = chunkContext.getStepContext().getStepExecution().getExecutionContext();
+                            context.putLong("trainMillis", trainMillis);
+                            context.putDouble("trainingRmse", trainingRmse);
+                            context.putDouble("testRmse", testRmse);
+                            context.putString("factorFile", Paths.get(factorFile).toAbsolutePath().toString());
+                            System.out.println(String.format("[Als] %s %s factors trained in %s ms on %s threads, training RMSE %.4f, test RMSE %.4f, %s bytes written to %s",
+                                    implicit ? "implicit" : "explicit", factors, trainMillis, threads, trainingRmse, testRmse,
+                                    bytes, Paths.get(factorFile).toAbsolutePath()));
+                            return RepeatStatus.FINISHED;
+                        }
+                    }, platformTransactionManager)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.play.als.trainer.util;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Alternating least squares factorization of a {@link RatingMatrix}. Every user and every movie gets a vector of
+ * `factors` floats, and a sweep solves the least squares problem of every user with the movie factors fixed, then of
+ * every movie with the user factors fixed. The problems of one half sweep are independent, they are solved in
+ * fork/join tasks over the pool, each task with its own f x f system.
+ * <ul>
+ *     <li>explicit: the factors fit the stars minus the global mean, with a regularization of lambda times the number
+ *     of ratings of the user or movie (ALS-WR), and a prediction is mean + x_u . y_m, clamped to 0.5 .. 5.0</li>
+ *     <li>implicit: every rating is an observed preference of 1, with a confidence of 1 + alpha * stars, and every
+ *     movie not rated a preference of 0 with a confidence of 1 (Hu, Koren, Volinsky); the unobserved part is the
+ *     shared Gram matrix of the fixed factors, so a solve still costs the ratings of the row only, and a prediction
+ *     is the preference x_u . y_m</li>
+ * </ul>
+ * Factors are held in flat float arrays, row r at r * factors.
+ */
+public class AlsSolver {
+    private final RatingMatrix matrix;
+    private final int factors;
+    private final double lambda;
+    private final boolean implicit;
+    private final double alpha;
+    private final ForkJoinPool pool;
+    public final float[] userFactors;
+    public final float[] movieFactors;
+
+    public AlsSolver(RatingMatrix matrix, int factors, double lambda, boolean implicit, double alpha, ForkJoinPool pool, long seed) {
+        this.matrix = matrix;
+        this.factors = factors;
+        this.lambda = lambda;
+        this.implicit = implicit;
+        this.alpha = alpha;
+        this.pool = pool;
+        this.userFactors = new float[matrix.userIds.length * factors];
+        this.movieFactors = new float[matrix.movieIds.length * factors];
+        // the users are solved first, only the movies need a starting point
+        Random random = new Random(seed);
+        for (int i = 0; i < movieFactors.length; i++) {
+            movieFactors[i] = (float) (random.nextGaussian() * 0.1);
+        }
+    }
+
+    public boolean isImplicit() {
+        return implicit;
+    }
+
+    public void iterate() {
+        solve(matrix.userOffsets, matrix.userMovies, matrix.userStars, movieFactors, userFactors);
+        solve(matrix.movieOffsets, matrix.movieUsers, matrix.movieStars, userFactors, movieFactors);
+    }
+
+    public double predict(int user, int movie) {
+        double dot = 0;
+        for (int f = 0; f < factors; f++) {
+            dot += userFactors[user * factors + f] * movieFactors[movie * factors + f];
+        }
+        return implicit ? dot : Math.max(0.5, Math.min(5.0, matrix.mean + dot));
+    }
+
+    /**
+     * Root mean square error on the training ratings, of the stars or, in implicit mode, of the preference 1.
+     */
+    public double trainingRmse() {
+        double squares = 0;
+        for (int u = 0; u < matrix.userIds.length; u++) {
+            for (int r = matrix.userOffsets[u]; r < matrix.userOffsets[u + 1]; r++) {
+                double error = predict(u, matrix.userMovies[r]) - target(matrix.userStars[r]);
+                squares += error * error;
+            }
+        }
+        return matrix.trainingCount() == 0 ? Double.NaN : Math.sqrt(squares / matrix.trainingCount());
+    }
+
+    /**
+     * Root mean square error on the held out ratings, NaN when none was held out.
+     */
+    public double testRmse() {
+        double squares = 0;
+        for (int t = 0; t < matrix.testStars.length; t++) {
+            double error = predict(matrix.testUsers[t], matrix.testMovies[t]) - target(matrix.testStars[t]);
+            squares += error * error;
+        }
+        return matrix.testStars.length == 0 ? Double.NaN : Math.sqrt(squares / matrix.testStars.length);
+    }
+
+    private double target(float stars) {
+        return implicit ? 1 : stars;
+    }
+
+    private void solve(int[] offsets, int[] columns, float[] stars, float[] fixed, float[] solved) {
+        double[] gram = implicit ? gram(fixed) : null;
+        int rows = offsets.length - 1;
+        int threshold = Math.max(64, rows / (pool.getParallelism() * 16));
+        pool.invoke(new SolveTask(0, rows, threshold, offsets, columns, stars, fixed, solved, gram));
+    }
+
+    // sum of y y^T over every row of the fixed factors
+    private double[] gram(float[] fixed) {
+        double[] gram = new double[factors * factors];
+        for (int row = 0; row < fixed.length / factors; row++) {
+            int base = row * factors;
+            for (int i = 0; i < factors; i++) {
+                double yi = fixed[base + i];
+                for (int j = 0; j <= i; j++) {
+                    gram[i * factors + j] += yi * fixed[base + j];
+                }
+            }
+        }
+        return gram;
+    }
+
+    private class SolveTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int threshold;
+        private final int[] offsets;
+        private final int[] columns;
+        private final float[] stars;
+        private final float[] fixed;
+        private final float[] solved;
+        private final double[] gram;
+
+        SolveTask(int from, int to, int threshold, int[] offsets, int[] columns, float[] stars, float[] fixed,
+                  float[] solved, double[] gram) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.offsets = offsets;
+            this.columns = columns;
+            this.stars = stars;
+            this.fixed = fixed;
+            this.solved = solved;
+            this.gram = gram;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SolveTask(from, middle, threshold, offsets, columns, stars, fixed, solved, gram),
+                        new SolveTask(middle, to, threshold, offsets, columns, stars, fixed, solved, gram));
+                return;
+            }
+            // lower triangles only, the systems are symmetric
+            double[] a = new double[factors * factors];
+            double[] b = new double[factors];
+            for (int row = from; row < to; row++) {
+                int ratings = offsets[row + 1] - offsets[row];
+                if (ratings == 0) {
+                    Arrays.fill(solved, row * factors, (row + 1) * factors, 0f);
+                    continue;
+                }
+                if (implicit) {
+                    System.arraycopy(gram, 0, a, 0, a.length);
+                } else {
+                    Arrays.fill(a, 0);
+                }
+                Arrays.fill(b, 0);
+                for (int r = offsets[row]; r < offsets[row + 1]; r++) {
+                    int base = columns[r] * factors;
+                    double weight;
+                    double target;
+                    if (implicit) {
+                        // confidence c: (c - 1) y y^T on top of the Gram matrix, c * 1 y on the right side
+                        double confidence = 1 + alpha * stars[r];
+                        weight = confidence - 1;
+                        target = confidence;
+                    } else {
+                        weight = 1;
+                        target = stars[r] - matrix.mean;
+                    }
+                    for (int i = 0; i < factors; i++) {
+                        double yi = fixed[base + i];
+                        double weighted = weight * yi;
+                        for (int j = 0; j <= i; j++) {
+                            a[i * factors + j] += weighted * fixed[base + j];
+                        }
+                        b[i] += target * yi;
+                    }
+                }
+                double regularization = implicit ? lambda : lambda * ratings;
+                for (int i = 0; i < factors; i++) {
+                    a[i * factors + i] += regularization;
+                }
+                choleskySolve(a, b);
+                for (int i = 0; i < factors; i++) {
+                    solved[row * factors + i] = (float) b[i];
+                }
+            }
+        }
+
+        // a = L L^T in place in the lower triangle, then b is overwritten by the solution of a x = b
+        private void choleskySolve(double[] a, double[] b) {
+            int n = factors;
+            for (int j = 0; j < n; j++) {
+                double diagonal = a[j * n + j];
+                for (int k = 0; k < j; k++) {
+                    diagonal -= a[j * n + k] * a[j * n + k];
+                }
+                diagonal = Math.sqrt(Math.max(diagonal, 1e-12));
+                a[j * n + j] = diagonal;
+                for (int i = j + 1; i < n; i++) {
+                    double value = a[i * n + j];
+                    for (int k = 0; k < j; k++) {
+                        value -= a[i * n + k] * a[j * n + k];
+                    }
+                    a[i * n + j] = value / diagonal;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                double value = b[i];
+                for (int k = 0; k < i; k++) {
+                    value -= a[i * n + k] * b[k];
+                }
+                b[i] = value / a[i * n + i];
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                double value = b[i];
+                for (int k = i + 1; k < n; k++) {
+                    value -= a[k * n + i] * b[k];
+                }
+                b[i] = value / a[i * n + i];
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.play.als.trainer.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary file of the factors trained by {@link AlsSolver}, read by the service through a memory mapping, so the
+ * layout is fixed and big endian:
+ * <pre>
+ * int   magic 0x4D4C4146 "MLAF", int version 1
+ * int   factors, int users, int movies, int implicit 0 or 1
+ * float mean, float test RMSE, NaN without a holdout
+ * long  training ratings, long trained at, epoch milliseconds
+ * int   user ids[users], sorted, then int movie ids[movies], sorted
+ * float user factors[users * factors], then float movie factors[movies * factors], row by row
+ * </pre>
+ * The header is 48 bytes, so every array starts on a 4 byte boundary. The file is written aside and moved over the
+ * previous one, a service mapping it never sees a half written model.
+ */
+public class FactorFile {
+    public static final int MAGIC = 0x4D4C4146;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 48;
+
+    public static long write(Path file, RatingMatrix matrix, AlsSolver solver, int factors, double testRmse) throws IOException {
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        Path written = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(written, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(factors).putInt(matrix.userIds.length).putInt(matrix.movieIds.length)
+                    .putInt(solver.isImplicit() ? 1 : 0).putFloat(matrix.mean).putFloat((float) testRmse)
+                    .putLong(matrix.trainingCount()).putLong(System.currentTimeMillis());
+            writeFully(channel, header.flip());
+            writeInts(channel, matrix.userIds);
+            writeInts(channel, matrix.movieIds);
+            writeFloats(channel, solver.userFactors);
+            writeFloats(channel, solver.movieFactors);
+            channel.force(true);
+        }
+        Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(file);
+    }
+
+    private static void writeInts(FileChannel channel, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        buffer.asIntBuffer().put(values);
+        writeFully(channel, buffer);
+    }
+
+    private static void writeFloats(FileChannel channel, float[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        buffer.asFloatBuffer().put(values);
+        writeFully(channel, buffer);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.play.als.trainer.util;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Arrays;
+
+/**
+ * The Rating table as a sparse user x movie matrix of primitive arrays. User and movie ids are replaced by their
+ * position in the sorted distinct ids, and the training ratings are kept twice in CSR (compressed sparse row)
+ * layout: by user, the movies and stars of user u are at userOffsets[u] .. userOffsets[u + 1], and by movie.
+ * <p>
+ * A share of the ratings, picked by a hash of (user_id, movie_id) so the split is the same on every run, is held
+ * out of the training and kept aside as (user, movie, stars) triples to measure the RMSE on ratings the model never
+ * saw.
+ */
+public class RatingMatrix {
+    public final int[] userIds;
+    public final int[] movieIds;
+    public final int[] userOffsets;
+    public final int[] userMovies;
+    public final float[] userStars;
+    public final int[] movieOffsets;
+    public final int[] movieUsers;
+    public final float[] movieStars;
+    public final int[] testUsers;
+    public final int[] testMovies;
+    public final float[] testStars;
+    public final float mean;
+
+    private RatingMatrix(int[] userIds, int[] movieIds, int[] userOffsets, int[] userMovies, float[] userStars,
+                         int[] movieOffsets, int[] movieUsers, float[] movieStars,
+                         int[] testUsers, int[] testMovies, float[] testStars, float mean) {
+        this.userIds = userIds;
+        this.movieIds = movieIds;
+        this.userOffsets = userOffsets;
+        this.userMovies = userMovies;
+        this.userStars = userStars;
+        this.movieOffsets = movieOffsets;
+        this.movieUsers = movieUsers;
+        this.movieStars = movieStars;
+        this.testUsers = testUsers;
+        this.testMovies = testMovies;
+        this.testStars = testStars;
+        this.mean = mean;
+    }
+
+    public int trainingCount() {
+        return userMovies.length;
+    }
+
+    /**
+     * @param ratingsSql user_id, movie_id and the rating in half stars of every rating
+     * @param holdout    share of the ratings kept out of the training, from 0 to 1
+     */
+    public static RatingMatrix read(JdbcTemplate jdbcTemplate, String ratingsSql, double holdout) {
+        Long rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM Rating", Long.class);
+        Columns columns = new Columns((int) Math.min(Integer.MAX_VALUE - 8, Math.max(1024, rows == null ? 0 : rows + rows / 8)));
+        jdbcTemplate.query(ratingsSql, rs -> {
+            columns.add(rs.getInt(1), rs.getInt(2), rs.getByte(3));
+        });
+        int count = columns.size;
+        int[] users = columns.users;
+        int[] movies = columns.movies;
+        byte[] halfStars = columns.halfStars;
+
+        int[] userIds = distinct(users, count);
+        int[] movieIds = distinct(movies, count);
+        long threshold = (long) (holdout * (1L << 32));
+        boolean[] test = new boolean[count];
+        int testCount = 0;
+        int[] userOffsets = new int[userIds.length + 1];
+        int[] movieOffsets = new int[movieIds.length + 1];
+        double sum = 0;
+        for (int r = 0; r < count; r++) {
+            test[r] = (hash(users[r], movies[r]) & 0xFFFFFFFFL) < threshold;
+            users[r] = Arrays.binarySearch(userIds, users[r]);
+            movies[r] = Arrays.binarySearch(movieIds, movies[r]);
+            if (test[r]) {
+                testCount++;
+                continue;
+            }
+            sum += halfStars[r] / 2.0;
+            userOffsets[users[r] + 1]++;
+            movieOffsets[movies[r] + 1]++;
+        }
+        for (int u = 0; u < userIds.length; u++) {
+            userOffsets[u + 1] += userOffsets[u];
+        }
+        for (int m = 0; m < movieIds.length; m++) {
+            movieOffsets[m + 1] += movieOffsets[m];
+        }
+        int trainingCount = count - testCount;
+        int[] userMovies = new int[trainingCount];
+        float[] userStars = new float[trainingCount];
+        int[] movieUsers = new int[trainingCount];
+        float[] movieStars = new float[trainingCount];
+        int[] testUsers = new int[testCount];
+        int[] testMovies = new int[testCount];
+        float[] testStars = new float[testCount];
+        int[] userFill = Arrays.copyOf(userOffsets, userIds.length);
+        int[] movieFill = Arrays.copyOf(movieOffsets, movieIds.length);
+        int t = 0;
+        for (int r = 0; r < count; r++) {
+            float stars = halfStars[r] / 2f;
+            if (test[r]) {
+                testUsers[t] = users[r];
+                testMovies[t] = movies[r];
+                testStars[t++] = stars;
+                continue;
+            }
+            userMovies[userFill[users[r]]] = movies[r];
+            userStars[userFill[users[r]]++] = stars;
+            movieUsers[movieFill[movies[r]]] = users[r];
+            movieStars[movieFill[movies[r]]++] = stars;
+        }
+        return new RatingMatrix(userIds, movieIds, userOffsets, userMovies, userStars, movieOffsets, movieUsers,
+                movieStars, testUsers, testMovies, testStars, trainingCount == 0 ? 0 : (float) (sum / trainingCount));
+    }
+
+    private static int hash(int userId, int movieId) {
+        // murmur3 finalizer, spreads neighbouring ids over the whole int range
+        int h = userId * 0x9E3779B1 ^ movieId;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int[] distinct(int[] values, int count) {
+        int[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    private static class Columns {
+        int[] users;
+        int[] movies;
+        byte[] halfStars;
+        int size;
+
+        Columns(int capacity) {
+            users = new int[capacity];
+            movies = new int[capacity];
+            halfStars = new byte[capacity];
+        }
+
+        void add(int user, int movie, byte halfStar) {
+            if (size == users.length) {
+                int grown = users.length + users.length / 2;
+                users = Arrays.copyOf(users, grown);
+                movies = Arrays.copyOf(movies, grown);
+                halfStars = Arrays.copyOf(halfStars, grown);
+            }
+            users[size] = user;
+            movies[size] = movie;
+            halfStars[size++] = halfStar;
+        }
+    }
+}
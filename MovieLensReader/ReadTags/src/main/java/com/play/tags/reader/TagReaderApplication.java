@@ -1,6 +1,7 @@
 package com.play.tags.reader;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Formula;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
@@ -47,7 +48,10 @@ class Tag {
     Long userId;
     @Column(name = "movie_id")
     Long movieId;
-    @Column(name = "tag")
+    @Column(name = "tag_vocabulary_id")
+    Integer tagVocabularyId;
+    // the tag loader keeps the text once in TagVocabulary
+    @Formula("(SELECT v.tag FROM TagVocabulary v WHERE v.tag_vocabulary_id = tag_vocabulary_id)")
     String tag;
     @Column(name = "timestamp")
     Timestamp timestamp;
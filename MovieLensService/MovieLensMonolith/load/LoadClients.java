@@ -0,0 +1,119 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed loop load on the monolith: `clients` clients each send a request, wait for its answer and send the next one,
+ * for `seconds` seconds after `warmup` seconds that are not measured. A `slowShare` of the requests read a page of
+ * /ratings/all at a random afterId, the others a movie of the catalog, so the latency of the cheap requests shows
+ * how much they wait behind the slow ones. Run it with `java LoadClients.java`, no build needed:
+ * <pre>
+ * java LoadClients.java http://localhost:7060 1000 30 0.05 2000 10 200000 64000
+ * </pre>
+ * baseUrl, clients, seconds, slowShare, slowLimit (rows of a slow page), warmup seconds (5), max ratingId (200000)
+ * and max movieId (2000) for the random ids.
+ */
+public class LoadClients {
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args[0];
+        int clients = Integer.parseInt(args[1]);
+        int seconds = Integer.parseInt(args[2]);
+        double slowShare = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+        int slowLimit = args.length > 4 ? Integer.parseInt(args[4]) : 10000;
+        int warmup = args.length > 5 ? Integer.parseInt(args[5]) : 5;
+        long maxRatingId = args.length > 6 ? Long.parseLong(args[6]) : 200000;
+        long maxMovieId = args.length > 7 ? Long.parseLong(args[7]) : 2000;
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(60)).build();
+        Latencies cheap = new Latencies();
+        Latencies slow = new Latencies();
+        AtomicLong errors = new AtomicLong();
+        AtomicBoolean measuring = new AtomicBoolean();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong inFlight = new AtomicLong();
+        for (int c = 0; c < clients; c++) {
+            send(client, baseUrl, slowShare, slowLimit, maxRatingId, maxMovieId, cheap, slow, errors, measuring, running, inFlight);
+        }
+        Thread.sleep(warmup * 1000L);
+        measuring.set(true);
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        measuring.set(false);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        running.set(false);
+        System.out.println(String.format("clients %d, %.0f s, slow share %.2f of %d rows: %.0f requests/s, %d errors",
+                clients, elapsed, slowShare, slowLimit, (cheap.count() + slow.count()) / elapsed, errors.get()));
+        System.out.println("cheap " + cheap.summary(elapsed));
+        System.out.println("slow  " + slow.summary(elapsed));
+        long deadline = System.currentTimeMillis() + 120_000;
+        while (inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        System.exit(0);
+    }
+
+    private static void send(HttpClient client, String baseUrl, double slowShare, int slowLimit, long maxRatingId, long maxMovieId,
+                             Latencies cheap, Latencies slow, AtomicLong errors, AtomicBoolean measuring,
+                             AtomicBoolean running, AtomicLong inFlight) {
+        if (!running.get()) {
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean isSlow = random.nextDouble() < slowShare;
+        String path = isSlow
+                ? "/ratings/all?afterId=" + random.nextLong(maxRatingId) + "&limit=" + slowLimit
+                : "/movies/" + (1 + random.nextLong(maxMovieId));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(120)).build();
+        long sent = System.nanoTime();
+        inFlight.incrementAndGet();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+            inFlight.decrementAndGet();
+            if (measuring.get()) {
+                if (failure != null || response.statusCode() != 200) {
+                    errors.incrementAndGet();
+                } else {
+                    (isSlow ? slow : cheap).add(System.nanoTime() - sent);
+                }
+            }
+            send(client, baseUrl, slowShare, slowLimit, maxRatingId, maxMovieId, cheap, slow, errors, measuring, running, inFlight);
+        });
+    }
+
+    private static class Latencies {
+        private long[] nanos = new long[1 << 16];
+        private int size;
+
+        synchronized void add(long latency) {
+            if (size == nanos.length) {
+                nanos = Arrays.copyOf(nanos, size * 2);
+            }
+            nanos[size++] = latency;
+        }
+
+        synchronized int count() {
+            return size;
+        }
+
+        synchronized String summary(double elapsed) {
+            long[] sorted = Arrays.copyOf(nanos, size);
+            Arrays.sort(sorted);
+            return String.format("%7d requests %8.1f/s  p50 %8.1f ms  p90 %8.1f ms  p99 %8.1f ms  max %8.1f ms",
+                    size, size / elapsed, at(sorted, 0.5), at(sorted, 0.9), at(sorted, 0.99), at(sorted, 1.0));
+        }
+
+        private static double at(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return Double.NaN;
+            }
+            int rank = (int) Math.ceil(quantile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, rank))] / 1e6;
+        }
+    }
+}
@@ -1,27 +1,94 @@
 package com.play.movielens;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import jakarta.annotation.PostConstruct;
 import jakarta.persistence.*;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.coyote.ProtocolHandler;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+import org.hibernate.annotations.Formula;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheConfig;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.interceptor.KeyGenerator;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Repository;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @SpringBootApplication
+@EnableScheduling
+@EnableCaching
 public class App {
     public static void main(String[] args) {
         SpringApplication.run(App.class, args);
@@ -41,118 +108,713 @@ class CorsConfig implements WebMvcConfigurer {
     }
 }
 
-@Repository
-interface MovieRepository extends JpaRepository<Movie, Long> {
-    Movie getByMovieId(@Param("movieId") Long movieId);
+// ETag of the reads of /movies, /ratings and /tags, the dataset version; a matching If-None-Match is answered 304
+@Configuration
+class DatasetETags implements WebMvcConfigurer {
+    @Autowired
+    private DatasetStamp datasetStamp;
 
-    List<Movie> getByMovieTitle(@Param("movieTitle") String movieTitle);
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                if (!HttpMethod.GET.matches(request.getMethod()) && !HttpMethod.HEAD.matches(request.getMethod())) {
+                    return true;
+                }
+                return !new ServletWebRequest(request, response).checkNotModified(datasetStamp.getETag());
+            }
+        }).addPathPatterns("/movies/**", "/ratings/**", "/tags/**").excludePathPatterns("/tags/suggest/info");
+    }
+}
 
-    List<Movie> getByMovieYear(@Param("movieYear") Long movieYear);
+// requests and NDJSON streams on virtual threads, needs a Java 21 runtime, see the virtual Maven profile
+@Configuration
+@ConditionalOnProperty(name = "movielens.threads.virtual", havingValue = "true")
+class VirtualThreads implements WebMvcConfigurer {
+    VirtualThreads() {
+        if (Runtime.version().feature() < 21) {
+            throw new IllegalStateException(String.format("movielens.threads.virtual needs a Java 21 runtime, this is Java %s", Runtime.version()));
+        }
+        System.out.println("[VirtualThreads] requests and async requests run on virtual threads");
+    }
+
+    @Bean
+    TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadRequests() {
+        return protocolHandler -> protocolHandler.setExecutor(new VirtualThreadExecutor("tomcat-handler-"));
+    }
 
-    List<Movie> getByMovieGenres(@Param("movieGenres") String movieGenres);
+    // applied after the configurer of Spring Boot, which sets the task executor
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(new TaskExecutorAdapter(new VirtualThreadExecutor("mvc-async-")));
+    }
+}
+
+// keyset pages of the listings, ?afterId=&limit=, with a Link rel="next" header on a full page
+@Component
+class KeysetPages {
+    @Value("${movielens.page.defaultLimit:1000}")
+    private int defaultLimit;
+    @Value("${movielens.page.maxLimit:10000}")
+    private int maxLimit;
+
+    public Pageable first(Integer limit) {
+        return PageRequest.of(0, limit == null || limit <= 0 ? defaultLimit : Math.min(limit, maxLimit));
+    }
+
+    // ids start at 1, no afterId is the first page
+    public static long after(Long afterId) {
+        return afterId == null ? 0L : afterId;
+    }
+
+    public <T> ResponseEntity<List<T>> page(List<T> rows, Pageable page, Function<T, Long> id) {
+        HttpHeaders headers = new HttpHeaders();
+        if (rows.size() == page.getPageSize()) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("afterId", id.apply(rows.get(rows.size() - 1)))
+                    .replaceQueryParam("limit", page.getPageSize())
+                    .toUriString();
+            headers.add(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return new ResponseEntity<>(rows, headers, HttpStatus.OK);
+    }
+}
+
+// NDJSON export of the listings, written while the rows are streamed from the repository
+@Component
+class NdjsonStreams {
+    @Autowired
+    private ObjectMapper objectMapper;
+    @PersistenceContext
+    private EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+
+    NdjsonStreams(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    public <T> ResponseEntity<StreamingResponseBody> stream(Supplier<Stream<T>> rows) {
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = objectMapper.createGenerator(out);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<T> stream = rows.get()) {
+                    Iterator<T> iterator = stream.iterator();
+                    while (iterator.hasNext()) {
+                        T row = iterator.next();
+                        generator.writeObject(row);
+                        generator.writeRaw('\n');
+                        entityManager.detach(row);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+}
+
+// POST .../batch of the listings, the rows of a list of ids, looked up with IN lists of movielens.batch.chunkSize
+@Component
+class BatchLookups {
+    @Value("${movielens.batch.maxIds:10000}")
+    private int maxIds;
+    @Value("${movielens.batch.chunkSize:1000}")
+    private int chunkSize;
+
+    // null when the ids can be looked up, else the status to answer
+    public HttpStatus check(List<Long> ids) {
+        if (ids.size() > maxIds) {
+            return HttpStatus.PAYLOAD_TOO_LARGE;
+        }
+        return ids.contains(null) ? HttpStatus.BAD_REQUEST : null;
+    }
+
+    public <T> List<T> lookup(List<Long> ids, Function<List<Long>, List<T>> query, Function<T, Long> id) {
+        List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<Long, T> found = new HashMap<>();
+        for (int from = 0; from < distinct.size(); from += chunkSize) {
+            for (T row : query.apply(distinct.subList(from, Math.min(from + chunkSize, distinct.size())))) {
+                found.put(id.apply(row), row);
+            }
+        }
+        List<T> rows = new ArrayList<>(found.size());
+        for (Long key : distinct) {
+            T row = found.get(key);
+            if (row != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+}
+
+// Caffeine caches of the read services, keyed by the dataset version, the method and its arguments
+@Configuration
+class ResultCaches {
+    @Bean
+    Caffeine<Object, Object> caffeine(@Value("${movielens.cache.maxRows:200000}") long maxRows,
+                                      @Value("${movielens.cache.expireAfterWrite:10m}") Duration expireAfterWrite) {
+        return Caffeine.newBuilder()
+                .maximumWeight(maxRows)
+                .weigher((Object key, Object value) -> value instanceof Collection<?> rows ? rows.size() + 1 : 1)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats();
+    }
+
+    // getByUserId(1, ...) and getByMovieId(1, ...) share the cache of their service, the method is part of the key
+    @Bean
+    KeyGenerator datasetKeys(DatasetStamp datasetStamp) {
+        return (target, method, params) -> new SimpleKey(datasetStamp.getETag(), method.getName(), new SimpleKey(params));
+    }
+}
+
+@Repository
+interface MovieRepository extends JpaRepository<Movie, Long> {
+    List<Movie> getByMovieIdGreaterThanOrderByMovieId(Long afterId, Pageable page);
+
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Movie> streamByMovieIdGreaterThanOrderByMovieId(Long afterId);
 }
 
 @Repository
 interface RatingRepository extends JpaRepository<Rating, Long> {
-    List<Rating> getByUserId(@Param("userId") Long userId);
+    List<Rating> getByRatingIdGreaterThanOrderByRatingId(Long afterId, Pageable page);
 
-    List<Rating> getByMovieId(@Param("movieId") Long movieId);
+    List<Rating> getByUserIdAndRatingIdGreaterThanOrderByRatingId(Long userId, Long afterId, Pageable page);
+
+    List<Rating> getByMovieIdAndRatingIdGreaterThanOrderByRatingId(Long movieId, Long afterId, Pageable page);
+
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Rating> streamByRatingIdGreaterThanOrderByRatingId(Long afterId);
+
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Rating> streamByUserIdAndRatingIdGreaterThanOrderByRatingId(Long userId, Long afterId);
+
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Rating> streamByMovieIdAndRatingIdGreaterThanOrderByRatingId(Long movieId, Long afterId);
 
     List<Rating> getByRating(@Param("rating") Double rating);
 
     Rating getByRatingId(@Param("ratingId") Long ratingId);
+
+    List<Rating> getByRatingIdIn(Collection<Long> ratingIds);
 }
 
 @Repository
 interface TagRepository extends JpaRepository<Tag, Long> {
     Tag getByTagId(@Param("tagId") Long tagId);
 
-    List<Tag> getByUserId(@Param("userId") Long userId);
+    List<Tag> getByTagIdIn(Collection<Long> tagIds);
+
+    List<Tag> getByTagIdGreaterThanOrderByTagId(Long afterId, Pageable page);
 
-    List<Tag> getByMovieId(@Param("movieId") Long movieId);
+    List<Tag> getByUserIdAndTagIdGreaterThanOrderByTagId(Long userId, Long afterId, Pageable page);
 
-    List<Tag> getByTag(@Param("tag") String tag);
+    List<Tag> getByMovieIdAndTagIdGreaterThanOrderByTagId(Long movieId, Long afterId, Pageable page);
+
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Tag> streamByTagIdGreaterThanOrderByTagId(Long afterId);
+
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Tag> streamByUserIdAndTagIdGreaterThanOrderByTagId(Long userId, Long afterId);
+
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    Stream<Tag> streamByMovieIdAndTagIdGreaterThanOrderByTagId(Long movieId, Long afterId);
+
+    List<Tag> getByTagVocabularyId(@Param("tagVocabularyId") Integer tagVocabularyId);
+}
+
+@Repository
+interface TagVocabularyRepository extends JpaRepository<TagVocabulary, Integer> {
+    TagVocabulary getByTag(@Param("tag") String tag);
+}
+
+@Repository
+interface MovieRatingStatsRepository extends JpaRepository<MovieRatingStats, Long> {
+    MovieRatingStats getByMovieId(@Param("movieId") Long movieId);
+}
+
+// the DatasetVersion rows of the loaders; refreshes what derives from a table that moved, then publishes the version
+@Component
+@DependsOn("entityManagerFactory")
+class DatasetStamp {
+    private static final String VERSION_SQL = "SELECT loader, version, changed_at FROM DatasetVersion";
+
+    private final JdbcTemplate jdbcTemplate;
+    @Autowired
+    private MovieService movieService;
+    @Autowired
+    private TagService tagService;
+    @Autowired
+    private Recommender recommender;
+    @Autowired
+    private CacheManager cacheManager;
+    private volatile Stamp stamp;
+    private volatile long checkedAt;
+    private volatile long changes;
+
+    DatasetStamp(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void load() {
+        stamp = read();
+        checkedAt = System.currentTimeMillis();
+        System.out.println(String.format("[DatasetStamp] version %s %s", stamp.eTag, stamp.versions));
+    }
+
+    @Scheduled(cron = "${movielens.dataset.checkCron:-}")
+    public void scheduledCheck() {
+        check();
+    }
+
+    // synchronized against another check only, requests keep the previous version until the swap; true when it moved
+    public synchronized boolean check() {
+        Stamp current = stamp;
+        Stamp read = read();
+        checkedAt = System.currentTimeMillis();
+        if (read.versions.equals(current.versions)) {
+            return false;
+        }
+        long start = System.nanoTime();
+        if (read.changed(current, "Movie")) {
+            movieService.reloadCatalog();
+        } else if (read.changed(current, "Rating")) {
+            movieService.refreshTop();
+        }
+        if (read.changed(current, "Rating")) {
+            recommender.ratingsChanged();
+        }
+        if (read.changed(current, "Tag")) {
+            tagService.refreshSuggestions();
+        }
+        stamp = read;
+        for (String name : cacheManager.getCacheNames()) {
+            cacheManager.getCache(name).clear();
+        }
+        changes++;
+        System.out.println(String.format("[DatasetStamp] version %s %s, was %s, refreshed in %s ms", read.eTag, read.versions,
+                current.eTag, (System.nanoTime() - start) / 1_000_000));
+        return true;
+    }
+
+    public String getETag() {
+        return stamp.eTag;
+    }
+
+    // the version of every loader, and the size, hits and misses of every cache
+    public Map<String, Object> getInfo() {
+        Stamp current = stamp;
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("eTag", current.eTag);
+        info.put("versions", current.versions);
+        info.put("changedAt", current.changedAt == 0 ? null : new Timestamp(current.changedAt));
+        info.put("checkedAt", new Timestamp(checkedAt));
+        info.put("changes", changes);
+        Map<String, Object> caches = new LinkedHashMap<>();
+        for (String name : cacheManager.getCacheNames()) {
+            Cache cache = cacheManager.getCache(name);
+            if (cache instanceof CaffeineCache caffeineCache) {
+                com.github.benmanes.caffeine.cache.Cache<Object, Object> entries = caffeineCache.getNativeCache();
+                CacheStats stats = entries.stats();
+                Map<String, Object> cacheInfo = new LinkedHashMap<>();
+                cacheInfo.put("entries", entries.estimatedSize());
+                entries.policy().eviction().ifPresent(eviction -> {
+                    cacheInfo.put("rows", eviction.weightedSize().orElse(0));
+                    cacheInfo.put("maxRows", eviction.getMaximum());
+                });
+                cacheInfo.put("hits", stats.hitCount());
+                cacheInfo.put("misses", stats.missCount());
+                cacheInfo.put("hitRate", stats.hitRate());
+                cacheInfo.put("evictions", stats.evictionCount());
+                cacheInfo.put("averageLoadMillis", stats.averageLoadPenalty() / 1_000_000);
+                caches.put(name, cacheInfo);
+            }
+        }
+        info.put("caches", caches);
+        return info;
+    }
+
+    private Stamp read() {
+        Stamp read = new Stamp();
+        jdbcTemplate.query(VERSION_SQL, rs -> {
+            read.versions.put(rs.getString(1), rs.getLong(2));
+            read.changedAt = Math.max(read.changedAt, rs.getTimestamp(3).getTime());
+        });
+        long version = 0;
+        for (long loaderVersion : read.versions.values()) {
+            version += loaderVersion;
+        }
+        read.eTag = "\"" + version + "-" + Long.toHexString(read.changedAt) + "\"";
+        return read;
+    }
+
+    private static class Stamp {
+        final Map<String, Long> versions = new TreeMap<>();
+        long changedAt;
+        String eTag;
+
+        boolean changed(Stamp previous, String loader) {
+            return !versions.getOrDefault(loader, 0L).equals(previous.versions.getOrDefault(loader, 0L));
+        }
+    }
 }
 
 @Service
+@CacheConfig(cacheNames = "movies", keyGenerator = "datasetKeys")
 class MovieService {
     @Autowired
     private MovieRepository movieRepository;
+    @Autowired
+    private MovieCatalog movieCatalog;
+    @Autowired
+    private MovieRatingStatsRepository movieRatingStatsRepository;
+    @Autowired
+    private TopMovies topMovies;
+    @Autowired
+    private TitleSearch titleSearch;
 
-    public List<Movie> getMovies() {
-        return this.movieRepository.findAll();
+    @Cacheable(sync = true)
+    public List<Movie> getMovies(Long afterId, Pageable page) {
+        return this.movieRepository.getByMovieIdGreaterThanOrderByMovieId(KeysetPages.after(afterId), page);
+    }
+
+    public Stream<Movie> streamMovies(Long afterId) {
+        return this.movieRepository.streamByMovieIdGreaterThanOrderByMovieId(KeysetPages.after(afterId));
     }
 
     public Movie getByMovieId(Long movieId) {
-        return this.movieRepository.getByMovieId(movieId);
+        return this.movieCatalog.getByMovieId(movieId);
+    }
+
+    public List<Movie> getByMovieIds(List<Long> movieIds) {
+        return this.movieCatalog.getByMovieIds(movieIds);
     }
 
     public List<Movie> getByMovieTitle(String movieTitle) {
-        return this.movieRepository.getByMovieTitle(movieTitle);
+        return this.movieCatalog.getByMovieTitle(movieTitle);
     }
 
     public List<Movie> getByMovieYear(Long movieYear) {
-        return this.movieRepository.getByMovieYear(movieYear);
+        return this.movieCatalog.getByMovieYear(movieYear);
+    }
+
+    public List<Movie> getByAllGenres(Collection<String> genres) {
+        return this.movieCatalog.getByAllGenres(genreNames(genres));
     }
 
-    public List<Movie> getByMovieGenres(String movieGenres) {
-        return this.movieRepository.getByMovieGenres(movieGenres);
+    public List<Movie> getByAnyGenre(Collection<String> genres) {
+        return this.movieCatalog.getByAnyGenre(genreNames(genres));
+    }
+
+    // null for an unknown movie, empty stats for a movie without ratings
+    @Cacheable(sync = true)
+    public MovieRatingStats getRatingStats(Long movieId) {
+        if (this.movieCatalog.getByMovieId(movieId) == null) {
+            return null;
+        }
+        MovieRatingStats stats = this.movieRatingStatsRepository.getByMovieId(movieId);
+        return stats != null ? stats : new MovieRatingStats(movieId);
+    }
+
+    // genre matched ignoring case, at most capacity movies
+    public List<TopMovie> getTop(String genre, Long yearFrom, Long yearTo, Integer n, Long minVotes) {
+        String genreName = genre == null || genre.isBlank() ? null : genre.trim().toUpperCase(Locale.ROOT);
+        int count = Math.min(n == null ? 10 : n, this.topMovies.getCapacity());
+        return this.topMovies.getTop(genreName, yearFrom, yearTo, count, minVotes == null ? 1 : minVotes);
+    }
+
+    public List<TitleMatch> search(String query, int limit) {
+        return this.titleSearch.search(query, limit);
+    }
+
+    public int refreshTop() {
+        return this.topMovies.refresh();
+    }
+
+    // the top lists and the title index hold catalog movies, they are rebuilt with it
+    public int reloadCatalog() {
+        int movies = this.movieCatalog.reload();
+        this.topMovies.refresh();
+        this.titleSearch.rebuild();
+        return movies;
+    }
+
+    // upper cased like the genre keys of the catalog, and without duplicates
+    private static Set<String> genreNames(Collection<String> genres) {
+        Set<String> genreNames = new LinkedHashSet<>();
+        for (String genre : genres) {
+            if (genre != null && !genre.isBlank()) {
+                genreNames.add(genre.trim().toUpperCase(Locale.ROOT));
+            }
+        }
+        return genreNames;
     }
 
 }
 
 @Service
+@CacheConfig(cacheNames = "ratings", keyGenerator = "datasetKeys")
 class RatingService {
     @Autowired
     private RatingRepository ratingRepository;
+    @Autowired
+    private MovieCatalog movieCatalog;
+    @Autowired
+    private BatchLookups batchLookups;
+
+    // the rows of a cached list are shared by the requests, they are expanded before they are cached
+    @Cacheable(sync = true)
+    public List<Rating> getRatings(Long afterId, Pageable page, String expand) {
+        return expand(this.ratingRepository.getByRatingIdGreaterThanOrderByRatingId(KeysetPages.after(afterId), page), expand);
+    }
 
-    public List<Rating> getRatings() {
-        return this.ratingRepository.findAll();
+    public Stream<Rating> streamRatings(Long afterId) {
+        return this.ratingRepository.streamByRatingIdGreaterThanOrderByRatingId(KeysetPages.after(afterId));
     }
 
+    @Cacheable(sync = true)
     public Rating getByRatingId(Long ratingId) {
         return this.ratingRepository.getByRatingId(ratingId);
     }
 
-    public List<Rating> getByUserId(Long userId) {
-        return this.ratingRepository.getByUserId(userId);
+    @Cacheable(sync = true)
+    public List<Rating> getByUserId(Long userId, Long afterId, Pageable page, String expand) {
+        return expand(this.ratingRepository.getByUserIdAndRatingIdGreaterThanOrderByRatingId(userId, KeysetPages.after(afterId), page), expand);
+    }
+
+    public Stream<Rating> streamByUserId(Long userId, Long afterId) {
+        return this.ratingRepository.streamByUserIdAndRatingIdGreaterThanOrderByRatingId(userId, KeysetPages.after(afterId));
+    }
+
+    @Cacheable(sync = true)
+    public List<Rating> getByMovieId(Long movieId, Long afterId, Pageable page, String expand) {
+        return expand(this.ratingRepository.getByMovieIdAndRatingIdGreaterThanOrderByRatingId(movieId, KeysetPages.after(afterId), page), expand);
+    }
+
+    public Stream<Rating> streamByMovieId(Long movieId, Long afterId) {
+        return this.ratingRepository.streamByMovieIdAndRatingIdGreaterThanOrderByRatingId(movieId, KeysetPages.after(afterId));
+    }
+
+    @Cacheable(sync = true)
+    public List<Rating> getByRating(Double rating, String expand) {
+        return expand(this.ratingRepository.getByRating(rating), expand);
     }
 
-    public List<Rating> getByMovieId(Long movieId) {
-        return this.ratingRepository.getByMovieId(movieId);
+    public List<Rating> getByRatingIds(List<Long> ratingIds) {
+        return this.batchLookups.lookup(ratingIds, this.ratingRepository::getByRatingIdIn, Rating::getRatingId);
     }
 
-    public List<Rating> getByRating(Double rating) {
-        return this.ratingRepository.getByRating(rating);
+    // ?expand=movie, the ratings carry their movie
+    public List<Rating> expand(List<Rating> ratings, String expand) {
+        if (MovieReference.EXPAND_MOVIE.equals(expand)) {
+            ratings.forEach(this.movieCatalog::withMovie);
+        }
+        return ratings;
+    }
+
+    public Stream<Rating> expand(Stream<Rating> ratings, String expand) {
+        return MovieReference.EXPAND_MOVIE.equals(expand) ? ratings.map(this.movieCatalog::withMovie) : ratings;
     }
 
 }
 
 @Service
+@CacheConfig(cacheNames = "tags", keyGenerator = "datasetKeys")
 class TagService {
     @Autowired
     private TagRepository tagRepository;
+    @Autowired
+    private TagVocabularyRepository tagVocabularyRepository;
+    @Autowired
+    private TagSuggestions tagSuggestions;
+    @Autowired
+    private MovieCatalog movieCatalog;
+    @Autowired
+    private BatchLookups batchLookups;
 
-    public List<Tag> getTags() {
-        return this.tagRepository.findAll();
+    // the rows of a cached list are shared by the requests, they are expanded before they are cached
+    @Cacheable(sync = true)
+    public List<Tag> getTags(Long afterId, Pageable page, String expand) {
+        return expand(this.tagRepository.getByTagIdGreaterThanOrderByTagId(KeysetPages.after(afterId), page), expand);
     }
 
+    public Stream<Tag> streamTags(Long afterId) {
+        return this.tagRepository.streamByTagIdGreaterThanOrderByTagId(KeysetPages.after(afterId));
+    }
+
+    @Cacheable(sync = true)
     public Tag getByTagId(Long tagId) {
         return this.tagRepository.getByTagId(tagId);
     }
 
-    public List<Tag> getByUserId(Long userId) {
-        return this.tagRepository.getByUserId(userId);
+    @Cacheable(sync = true)
+    public List<Tag> getByUserId(Long userId, Long afterId, Pageable page, String expand) {
+        return expand(this.tagRepository.getByUserIdAndTagIdGreaterThanOrderByTagId(userId, KeysetPages.after(afterId), page), expand);
+    }
+
+    public Stream<Tag> streamByUserId(Long userId, Long afterId) {
+        return this.tagRepository.streamByUserIdAndTagIdGreaterThanOrderByTagId(userId, KeysetPages.after(afterId));
     }
 
-    public List<Tag> getByMovieId(Long movieId) {
-        return this.tagRepository.getByMovieId(movieId);
+    @Cacheable(sync = true)
+    public List<Tag> getByMovieId(Long movieId, Long afterId, Pageable page, String expand) {
+        return expand(this.tagRepository.getByMovieIdAndTagIdGreaterThanOrderByTagId(movieId, KeysetPages.after(afterId), page), expand);
     }
 
-    public List<Tag> getByTag(String tag) {
-        return this.tagRepository.getByTag(tag);
+    public Stream<Tag> streamByMovieId(Long movieId, Long afterId) {
+        return this.tagRepository.streamByMovieIdAndTagIdGreaterThanOrderByTagId(movieId, KeysetPages.after(afterId));
     }
 
+    @Cacheable(sync = true)
+    public List<Tag> getByTag(String tag, String expand) {
+        // the tag is looked up once in the vocabulary, then the Tag rows are found by its integer id
+        TagVocabulary vocabulary = this.tagVocabularyRepository.getByTag(normalizeTag(tag));
+        if (vocabulary == null) {
+            return Collections.emptyList();
+        }
+        return expand(this.tagRepository.getByTagVocabularyId(vocabulary.getTagVocabularyId()), expand);
+    }
+
+    public List<Tag> getByTagIds(List<Long> tagIds) {
+        return this.batchLookups.lookup(tagIds, this.tagRepository::getByTagIdIn, Tag::getTagId);
+    }
+
+    // ?expand=movie, the tags carry their movie
+    public List<Tag> expand(List<Tag> tags, String expand) {
+        if (MovieReference.EXPAND_MOVIE.equals(expand)) {
+            tags.forEach(this.movieCatalog::withMovie);
+        }
+        return tags;
+    }
+
+    public Stream<Tag> expand(Stream<Tag> tags, String expand) {
+        return MovieReference.EXPAND_MOVIE.equals(expand) ? tags.map(this.movieCatalog::withMovie) : tags;
+    }
+
+    // normalized like the tags, but a trailing blank is kept: "sci " only completes to the tags with a word after "sci"
+    public List<TagSuggestion> suggest(String prefix, int n) {
+        String normalized = normalizeTag(prefix);
+        if (!normalized.isEmpty() && Character.isWhitespace(prefix.charAt(prefix.length() - 1))) {
+            normalized += ' ';
+        }
+        return this.tagSuggestions.suggest(normalized, n);
+    }
+
+    public long refreshSuggestions() {
+        return this.tagSuggestions.refresh();
+    }
+
+    public Map<String, Object> getSuggestionInfo() {
+        return this.tagSuggestions.getInfo();
+    }
+
+    // same rules as the TagDictionary of the tag loader: trimmed, one space between words, lower case
+    static String normalizeTag(String tag) {
+        StringBuilder normalized = new StringBuilder(tag.length());
+        boolean blank = false;
+        for (int i = 0; i < tag.length(); i++) {
+            char c = tag.charAt(i);
+            if (Character.isWhitespace(c)) {
+                blank = normalized.length() > 0;
+                continue;
+            }
+            if (blank) {
+                normalized.append(' ');
+                blank = false;
+            }
+            normalized.append(c);
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+
+}
+
+@Service
+class RecommendationService {
+    @Autowired
+    private Recommender recommender;
+    @Autowired
+    private MovieCatalog movieCatalog;
+
+    public boolean isReady() {
+        return this.recommender.isReady();
+    }
+
+    public List<Recommendation> getByUserId(Long userId, Integer n) {
+        List<Recommendation> recommendations = new ArrayList<>();
+        for (Map.Entry<Long, Double> scored : this.recommender.recommend(userId, n == null ? 10 : n)) {
+            Movie movie = this.movieCatalog.getByMovieId(scored.getKey());
+            if (movie != null) {
+                recommendations.add(new Recommendation(movie, scored.getValue()));
+            }
+        }
+        return recommendations;
+    }
+
+    public boolean rebuildModel() {
+        return this.recommender.rebuild();
+    }
+
+    public Map<String, Object> getModelInfo() {
+        return this.recommender.getModelInfo();
+    }
+}
+
+@Service
+class PredictionService {
+    @Autowired
+    private Predictor predictor;
+
+    public boolean isReady() {
+        return this.predictor.isReady();
+    }
+
+    public Prediction predict(Long userId, Long movieId) {
+        Double rating = this.predictor.predict(userId, movieId);
+        return rating == null ? null : new Prediction(userId, movieId, rating);
+    }
+
+    public List<Prediction> predict(List<Prediction> predictions) {
+        this.predictor.predict(predictions);
+        return predictions;
+    }
+
+    public boolean reloadModel() {
+        return this.predictor.reload();
+    }
+
+    public Map<String, Object> getModelInfo() {
+        return this.predictor.getModelInfo();
+    }
+}
+
+@Service
+class DatasetService {
+    @Autowired
+    private DatasetStamp datasetStamp;
+
+    public boolean check() {
+        return this.datasetStamp.check();
+    }
+
+    public Map<String, Object> getInfo() {
+        return this.datasetStamp.getInfo();
+    }
 }
 
 @RestController
@@ -161,6 +823,14 @@ class MovieController {
 
     @Autowired
     private MovieService movieService;
+    @Autowired
+    private KeysetPages keysetPages;
+    @Autowired
+    private BatchLookups batchLookups;
+    @Autowired
+    private NdjsonStreams ndjsonStreams;
+    @Value("${movielens.search.maxLimit:100}")
+    private int searchMaxLimit;
 
     @GetMapping("/")
     public ResponseEntity<String> serviceInfo() {
@@ -173,9 +843,58 @@ class MovieController {
     }
 
     @GetMapping("/all")
-    public ResponseEntity<List<Movie>> getMovies() {
-        System.out.println("[Controller] Get Movies");
-        return new ResponseEntity<>(movieService.getMovies(), HttpStatus.OK);
+    public ResponseEntity<List<Movie>> getMovies(@RequestParam(required = false) Long afterId,
+                                                 @RequestParam(required = false) Integer limit) {
+        System.out.println(String.format("[Controller] Get Movies after [%s] limit [%s]", afterId, limit));
+        Pageable page = keysetPages.first(limit);
+        return keysetPages.page(movieService.getMovies(afterId, page), page, Movie::getMovieId);
+    }
+
+    @GetMapping("/all/stream")
+    public ResponseEntity<StreamingResponseBody> streamMovies(@RequestParam(required = false) Long afterId) {
+        System.out.println(String.format("[Controller] Stream Movies after [%s]", afterId));
+        return ndjsonStreams.stream(() -> movieService.streamMovies(afterId));
+    }
+
+    @PostMapping("/catalog/reload")
+    public ResponseEntity<String> reloadCatalog() {
+        System.out.println("[Controller] Reload the Movie catalog");
+        int movies = movieService.reloadCatalog();
+        return new ResponseEntity<>(String.format("Movie catalog reloaded, %s movies", movies), HttpStatus.OK);
+    }
+
+    @GetMapping("/top")
+    public ResponseEntity<List<TopMovie>> getTop(@RequestParam(required = false) String genre,
+                                                 @RequestParam(required = false) Long yearFrom,
+                                                 @RequestParam(required = false) Long yearTo,
+                                                 @RequestParam(required = false) Integer n,
+                                                 @RequestParam(required = false) Long minVotes) {
+        // /movies/top?genre=Comedy&yearFrom=1990&yearTo=1999&n=10&minVotes=50, best Bayesian mean first
+        System.out.println(String.format("[Controller] Get top [%s] movies of genre [%s] years [%s-%s] minVotes [%s]",
+                n, genre, yearFrom, yearTo, minVotes));
+        if ((n != null && n < 1) || (yearFrom != null && yearTo != null && yearFrom > yearTo)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(movieService.getTop(genre, yearFrom, yearTo, n, minVotes), HttpStatus.OK);
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<List<TitleMatch>> search(@RequestParam String q,
+                                                   @RequestParam(required = false) Integer limit) {
+        // /movies/search?q=toy stor&limit=10, typos and a partial last word allowed, best match first
+        System.out.println(String.format("[Controller] Search Movies by title [%s] limit [%s]", q, limit));
+        if (q.isBlank() || (limit != null && limit < 1)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        int count = Math.min(limit == null ? 10 : limit, searchMaxLimit);
+        return new ResponseEntity<>(movieService.search(q, count), HttpStatus.OK);
+    }
+
+    @PostMapping("/top/refresh")
+    public ResponseEntity<String> refreshTop() {
+        System.out.println("[Controller] Refresh the top movies");
+        int movies = movieService.refreshTop();
+        return new ResponseEntity<>(String.format("Top movies refreshed, %s rated movies", movies), HttpStatus.OK);
     }
 
     @GetMapping("/{movieId}")
@@ -185,6 +904,28 @@ class MovieController {
         return new ResponseEntity<>(movie, HttpStatus.OK);
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<List<Movie>> getByMovieIds(@RequestBody List<Long> movieIds) {
+        // [3, 1, 2], the movies of these ids in this order, the unknown ones left out
+        System.out.println(String.format("[Controller] Get a batch of [%s] Movies", movieIds.size()));
+        HttpStatus rejected = batchLookups.check(movieIds);
+        if (rejected != null) {
+            return new ResponseEntity<>(rejected);
+        }
+        return new ResponseEntity<>(movieService.getByMovieIds(movieIds), HttpStatus.OK);
+    }
+
+    @GetMapping("/{movieId}/stats")
+    public ResponseEntity<MovieRatingStats> getRatingStats(@PathVariable Long movieId) {
+        // count, mean, variance and half star histogram of the ratings, from one MovieRatingStats row
+        System.out.println(String.format("[Controller] Get rating stats by movieId [%s]", movieId));
+        MovieRatingStats stats = movieService.getRatingStats(movieId);
+        if (stats == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(stats, HttpStatus.OK);
+    }
+
     @GetMapping("/year/{movieYear}")
     public ResponseEntity<List<Movie>> getByMovieYear(@PathVariable Long movieYear) {
         System.out.println(String.format("[Controller] Get Movies by movieYear [%s]", movieYear));
@@ -193,11 +934,24 @@ class MovieController {
     }
 
     @GetMapping("/genres/{movieGenres}")
-    public ResponseEntity<List<Movie>> getByMovieGenres(@PathVariable String movieGenres) {
+    public ResponseEntity<List<Movie>> getByMovieGenres(@PathVariable List<String> movieGenres) {
+        // every movie having the genre, or all of the genres of a comma separated list
         System.out.println(String.format("[Controller] Get Movies by movieGenres [%s]", movieGenres));
-        List<Movie> byMovieGenres = movieService.getByMovieGenres(movieGenres);
+        List<Movie> byMovieGenres = movieService.getByAllGenres(movieGenres);
         return new ResponseEntity<>(byMovieGenres, HttpStatus.OK);
     }
+
+    @GetMapping("/genres")
+    public ResponseEntity<List<Movie>> getByGenres(@RequestParam(required = false) List<String> all,
+                                                   @RequestParam(required = false) List<String> any) {
+        // /movies/genres?all=Comedy,Romance movies having both, /movies/genres?any=Comedy,Romance movies having either
+        System.out.println(String.format("[Controller] Get Movies by genres all %s any %s", all, any));
+        if ((all == null) == (any == null)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        List<Movie> byGenres = all != null ? movieService.getByAllGenres(all) : movieService.getByAnyGenre(any);
+        return new ResponseEntity<>(byGenres, HttpStatus.OK);
+    }
 }
 
 @RestController
@@ -206,6 +960,12 @@ class RatingController {
 
     @Autowired
     private RatingService ratingService;
+    @Autowired
+    private KeysetPages keysetPages;
+    @Autowired
+    private BatchLookups batchLookups;
+    @Autowired
+    private NdjsonStreams ndjsonStreams;
 
     @GetMapping("/")
     public ResponseEntity<String> serviceInfo() {
@@ -218,9 +978,25 @@ class RatingController {
     }
 
     @GetMapping("/all")
-    public ResponseEntity<List<Rating>> getRatings() {
-        System.out.println("[Controller] Get Ratings");
-        return new ResponseEntity<>(ratingService.getRatings(), HttpStatus.OK);
+    public ResponseEntity<List<Rating>> getRatings(@RequestParam(required = false) Long afterId,
+                                                   @RequestParam(required = false) Integer limit,
+                                                   @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Get Ratings after [%s] limit [%s] expand [%s]", afterId, limit, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Pageable page = keysetPages.first(limit);
+        return keysetPages.page(ratingService.getRatings(afterId, page, expand), page, Rating::getRatingId);
+    }
+
+    @GetMapping("/all/stream")
+    public ResponseEntity<StreamingResponseBody> streamRatings(@RequestParam(required = false) Long afterId,
+                                                               @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Stream Ratings after [%s] expand [%s]", afterId, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return ndjsonStreams.stream(() -> ratingService.expand(ratingService.streamRatings(afterId), expand));
     }
 
     @GetMapping("/{ratingId}")
@@ -231,26 +1007,74 @@ class RatingController {
     }
 
     @GetMapping("/user/{userId}")
-    public ResponseEntity<List<Rating>> getByUserId(@PathVariable Long userId) {
-        System.out.println(String.format("[Controller] Get Ratings by userId [%s]", userId));
-        List<Rating> byUserId = ratingService.getByUserId(userId);
-        return new ResponseEntity<>(byUserId, HttpStatus.OK);
+    public ResponseEntity<List<Rating>> getByUserId(@PathVariable Long userId, @RequestParam(required = false) Long afterId,
+                                                    @RequestParam(required = false) Integer limit,
+                                                    @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Get Ratings by userId [%s] after [%s] limit [%s] expand [%s]", userId, afterId, limit, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Pageable page = keysetPages.first(limit);
+        List<Rating> byUserId = ratingService.getByUserId(userId, afterId, page, expand);
+        return keysetPages.page(byUserId, page, Rating::getRatingId);
+    }
+
+    @GetMapping("/user/{userId}/stream")
+    public ResponseEntity<StreamingResponseBody> streamByUserId(@PathVariable Long userId, @RequestParam(required = false) Long afterId,
+                                                                @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Stream Ratings by userId [%s] after [%s] expand [%s]", userId, afterId, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return ndjsonStreams.stream(() -> ratingService.expand(ratingService.streamByUserId(userId, afterId), expand));
     }
 
     @GetMapping("/movie/{movieId}")
-    public ResponseEntity<List<Rating>> getByMovieId(@PathVariable Long movieId) {
-        System.out.println(String.format("[Controller] Get Ratings by movieId [%s]", movieId));
-        List<Rating> byMovieId = ratingService.getByMovieId(movieId);
-        return new ResponseEntity<>(byMovieId, HttpStatus.OK);
+    public ResponseEntity<List<Rating>> getByMovieId(@PathVariable Long movieId, @RequestParam(required = false) Long afterId,
+                                                     @RequestParam(required = false) Integer limit,
+                                                     @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Get Ratings by movieId [%s] after [%s] limit [%s] expand [%s]", movieId, afterId, limit, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Pageable page = keysetPages.first(limit);
+        List<Rating> byMovieId = ratingService.getByMovieId(movieId, afterId, page, expand);
+        return keysetPages.page(byMovieId, page, Rating::getRatingId);
+    }
+
+    @GetMapping("/movie/{movieId}/stream")
+    public ResponseEntity<StreamingResponseBody> streamByMovieId(@PathVariable Long movieId, @RequestParam(required = false) Long afterId,
+                                                                 @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Stream Ratings by movieId [%s] after [%s] expand [%s]", movieId, afterId, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return ndjsonStreams.stream(() -> ratingService.expand(ratingService.streamByMovieId(movieId, afterId), expand));
     }
 
     @GetMapping("/rating/{rating}")
-    public ResponseEntity<List<Rating>> getByRating(@PathVariable Double rating) {
-        System.out.println(String.format("[Controller] Get Ratings by rating [%s]", rating));
-        List<Rating> byRating = ratingService.getByRating(rating);
+    public ResponseEntity<List<Rating>> getByRating(@PathVariable Double rating,
+                                                    @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Get Ratings by rating [%s] expand [%s]", rating, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        List<Rating> byRating = ratingService.getByRating(rating, expand);
         return new ResponseEntity<>(byRating, HttpStatus.OK);
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<List<Rating>> getByRatingIds(@RequestBody List<Long> ratingIds,
+                                                       @RequestParam(required = false) String expand) {
+        // [3, 1, 2], the ratings of these ids in this order, the unknown ones left out
+        System.out.println(String.format("[Controller] Get a batch of [%s] Ratings expand [%s]", ratingIds.size(), expand));
+        HttpStatus rejected = batchLookups.check(ratingIds);
+        if (rejected != null || !MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(rejected != null ? rejected : HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(ratingService.expand(ratingService.getByRatingIds(ratingIds), expand), HttpStatus.OK);
+    }
+
 }
 
 @RestController
@@ -259,6 +1083,14 @@ class TagController {
 
     @Autowired
     private TagService tagService;
+    @Value("${movielens.tags.suggest.maxLimit:100}")
+    private int suggestMaxLimit;
+    @Autowired
+    private KeysetPages keysetPages;
+    @Autowired
+    private BatchLookups batchLookups;
+    @Autowired
+    private NdjsonStreams ndjsonStreams;
 
     @GetMapping("/")
     public ResponseEntity<String> serviceInfo() {
@@ -271,9 +1103,50 @@ class TagController {
     }
 
     @GetMapping("/all")
-    public ResponseEntity<List<Tag>> getTags() {
-        System.out.println("[Controller] Get Tags");
-        return new ResponseEntity<>(tagService.getTags(), HttpStatus.OK);
+    public ResponseEntity<List<Tag>> getTags(@RequestParam(required = false) Long afterId,
+                                             @RequestParam(required = false) Integer limit,
+                                             @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Get Tags after [%s] limit [%s] expand [%s]", afterId, limit, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Pageable page = keysetPages.first(limit);
+        return keysetPages.page(tagService.getTags(afterId, page, expand), page, Tag::getTagId);
+    }
+
+    @GetMapping("/all/stream")
+    public ResponseEntity<StreamingResponseBody> streamTags(@RequestParam(required = false) Long afterId,
+                                                            @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Stream Tags after [%s] expand [%s]", afterId, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return ndjsonStreams.stream(() -> tagService.expand(tagService.streamTags(afterId), expand));
+    }
+
+    @GetMapping("/suggest")
+    public ResponseEntity<List<TagSuggestion>> suggest(@RequestParam String prefix,
+                                                       @RequestParam(required = false) Integer n) {
+        // /tags/suggest?prefix=dark%20c&n=10, the most used tags starting with the prefix first
+        System.out.println(String.format("[Controller] Suggest [%s] tags by prefix [%s]", n, prefix));
+        if (n != null && n < 1) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        int count = Math.min(n == null ? 10 : n, suggestMaxLimit);
+        return new ResponseEntity<>(tagService.suggest(prefix, count), HttpStatus.OK);
+    }
+
+    @GetMapping("/suggest/info")
+    public ResponseEntity<Map<String, Object>> getSuggestionInfo() {
+        // tags, trie nodes and their memory footprint in bytes, last refresh
+        return new ResponseEntity<>(tagService.getSuggestionInfo(), HttpStatus.OK);
+    }
+
+    @PostMapping("/suggest/refresh")
+    public ResponseEntity<String> refreshSuggestions() {
+        System.out.println("[Controller] Refresh the tag suggestions");
+        long rows = tagService.refreshSuggestions();
+        return new ResponseEntity<>(String.format("Tag suggestions refreshed, %s new tag rows", rows), HttpStatus.OK);
     }
 
     @GetMapping("/{tagId}")
@@ -284,30 +1157,230 @@ class TagController {
     }
 
     @GetMapping("/user/{userId}")
-    public ResponseEntity<List<Tag>> getByUserId(@PathVariable Long userId) {
-        System.out.println(String.format("[Controller] Get Tags by userId [%s]", userId));
-        List<Tag> byUserId = tagService.getByUserId(userId);
-        return new ResponseEntity<>(byUserId, HttpStatus.OK);
+    public ResponseEntity<List<Tag>> getByUserId(@PathVariable Long userId, @RequestParam(required = false) Long afterId,
+                                                 @RequestParam(required = false) Integer limit,
+                                                 @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Get Tags by userId [%s] after [%s] limit [%s] expand [%s]", userId, afterId, limit, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Pageable page = keysetPages.first(limit);
+        List<Tag> byUserId = tagService.getByUserId(userId, afterId, page, expand);
+        return keysetPages.page(byUserId, page, Tag::getTagId);
+    }
+
+    @GetMapping("/user/{userId}/stream")
+    public ResponseEntity<StreamingResponseBody> streamByUserId(@PathVariable Long userId, @RequestParam(required = false) Long afterId,
+                                                                @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Stream Tags by userId [%s] after [%s] expand [%s]", userId, afterId, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return ndjsonStreams.stream(() -> tagService.expand(tagService.streamByUserId(userId, afterId), expand));
     }
 
     @GetMapping("/movie/{movieId}")
-    public ResponseEntity<List<Tag>> getByMovieId(@PathVariable Long movieId) {
-        System.out.println(String.format("[Controller] Get Tags by movieId [%s]", movieId));
-        List<Tag> byMovieId = tagService.getByMovieId(movieId);
-        return new ResponseEntity<>(byMovieId, HttpStatus.OK);
+    public ResponseEntity<List<Tag>> getByMovieId(@PathVariable Long movieId, @RequestParam(required = false) Long afterId,
+                                                  @RequestParam(required = false) Integer limit,
+                                                  @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Get Tags by movieId [%s] after [%s] limit [%s] expand [%s]", movieId, afterId, limit, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Pageable page = keysetPages.first(limit);
+        List<Tag> byMovieId = tagService.getByMovieId(movieId, afterId, page, expand);
+        return keysetPages.page(byMovieId, page, Tag::getTagId);
+    }
+
+    @GetMapping("/movie/{movieId}/stream")
+    public ResponseEntity<StreamingResponseBody> streamByMovieId(@PathVariable Long movieId, @RequestParam(required = false) Long afterId,
+                                                                 @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Stream Tags by movieId [%s] after [%s] expand [%s]", movieId, afterId, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return ndjsonStreams.stream(() -> tagService.expand(tagService.streamByMovieId(movieId, afterId), expand));
     }
 
     @GetMapping("/tag/{tag}")
-    public ResponseEntity<List<Tag>> getByRating(@PathVariable String tag) {
-        System.out.println(String.format("[Controller] Get Tags by tag [%s]", tag));
-        List<Tag> byTag = tagService.getByTag(tag);
+    public ResponseEntity<List<Tag>> getByRating(@PathVariable String tag, @RequestParam(required = false) String expand) {
+        System.out.println(String.format("[Controller] Get Tags by tag [%s] expand [%s]", tag, expand));
+        if (!MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        List<Tag> byTag = tagService.getByTag(tag, expand);
         return new ResponseEntity<>(byTag, HttpStatus.OK);
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<List<Tag>> getByTagIds(@RequestBody List<Long> tagIds,
+                                                 @RequestParam(required = false) String expand) {
+        // [3, 1, 2], the tags of these ids in this order, the unknown ones left out
+        System.out.println(String.format("[Controller] Get a batch of [%s] Tags expand [%s]", tagIds.size(), expand));
+        HttpStatus rejected = batchLookups.check(tagIds);
+        if (rejected != null || !MovieReference.isExpand(expand)) {
+            return new ResponseEntity<>(rejected != null ? rejected : HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(tagService.expand(tagService.getByTagIds(tagIds), expand), HttpStatus.OK);
+    }
+
+}
+
+@RestController
+@RequestMapping("/recommendations")
+class RecommendationController {
+
+    @Autowired
+    private RecommendationService recommendationService;
+
+    @GetMapping("/")
+    public ResponseEntity<String> serviceInfo() {
+        return new ResponseEntity<>("Recommendation Service", HttpStatus.OK);
+    }
+
+    @GetMapping("/version")
+    public ResponseEntity<String> serviceVersionInfo() {
+        return new ResponseEntity<>("Recommendation Service v1.0", HttpStatus.OK);
+    }
+
+    @GetMapping("/user/{userId}")
+    public ResponseEntity<List<Recommendation>> getByUserId(@PathVariable Long userId,
+                                                            @RequestParam(required = false) Integer n) {
+        System.out.println(String.format("[Controller] Get [%s] recommendations by userId [%s]", n, userId));
+        if (n != null && n < 1) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        if (!recommendationService.isReady()) {
+            // the first model is still being built
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return new ResponseEntity<>(recommendationService.getByUserId(userId, n), HttpStatus.OK);
+    }
+
+    @GetMapping("/model")
+    public ResponseEntity<Map<String, Object>> getModelInfo() {
+        // size and build time of the neighbour model, p50/p99 latency of the last requests
+        return new ResponseEntity<>(recommendationService.getModelInfo(), HttpStatus.OK);
+    }
+
+    @PostMapping("/model/rebuild")
+    public ResponseEntity<String> rebuildModel() {
+        System.out.println("[Controller] Rebuild the item neighbour model");
+        if (!recommendationService.rebuildModel()) {
+            return new ResponseEntity<>("Item neighbour model already being built", HttpStatus.CONFLICT);
+        }
+        return new ResponseEntity<>("Item neighbour model build started", HttpStatus.ACCEPTED);
+    }
+}
+
+@RestController
+@RequestMapping("/predict")
+class PredictionController {
+
+    @Autowired
+    private PredictionService predictionService;
+    @Value("${movielens.predict.maxBatch:10000}")
+    private int maxBatch;
+
+    @GetMapping("/version")
+    public ResponseEntity<String> serviceVersionInfo() {
+        return new ResponseEntity<>("Prediction Service v1.0", HttpStatus.OK);
+    }
+
+    @GetMapping
+    public ResponseEntity<Prediction> predict(@RequestParam Long userId, @RequestParam Long movieId) {
+        System.out.println(String.format("[Controller] Predict the rating of movieId [%s] by userId [%s]", movieId, userId));
+        if (!predictionService.isReady()) {
+            // no factor file trained yet
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        Prediction prediction = predictionService.predict(userId, movieId);
+        if (prediction == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(prediction, HttpStatus.OK);
+    }
+
+    @PostMapping("/batch")
+    public ResponseEntity<List<Prediction>> predictBatch(@RequestBody List<Prediction> predictions) {
+        System.out.println(String.format("[Controller] Predict a batch of [%s] ratings", predictions.size()));
+        if (predictions.size() > maxBatch) {
+            return new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        for (Prediction prediction : predictions) {
+            if (prediction == null || prediction.getUserId() == null || prediction.getMovieId() == null) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+        }
+        if (!predictionService.isReady()) {
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        // in the order of the request, with a null rating for the pairs the model does not know
+        return new ResponseEntity<>(predictionService.predict(predictions), HttpStatus.OK);
+    }
+
+    @GetMapping("/model")
+    public ResponseEntity<Map<String, Object>> getModelInfo() {
+        // factors, sizes, training date and test RMSE of the mapped factor file
+        return new ResponseEntity<>(predictionService.getModelInfo(), HttpStatus.OK);
+    }
+
+    @PostMapping("/model/reload")
+    public ResponseEntity<String> reloadModel() {
+        System.out.println("[Controller] Reload the factor model");
+        if (!predictionService.reloadModel()) {
+            return new ResponseEntity<>("Factor file missing or unreadable, the previous model is kept", HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return new ResponseEntity<>("Factor model reloaded", HttpStatus.OK);
+    }
+}
+
+@RestController
+@RequestMapping("/dataset")
+class DatasetController {
+
+    @Autowired
+    private DatasetService datasetService;
+
+    @GetMapping("/version")
+    public ResponseEntity<String> serviceVersionInfo() {
+        return new ResponseEntity<>("Dataset Service v1.0", HttpStatus.OK);
+    }
+
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getInfo() {
+        // version of every loader, the ETag of the reads, entries, hits and misses of the result caches
+        return new ResponseEntity<>(datasetService.getInfo(), HttpStatus.OK);
+    }
+
+    @PostMapping("/check")
+    public ResponseEntity<String> check() {
+        System.out.println("[Controller] Check the dataset version");
+        if (!datasetService.check()) {
+            return new ResponseEntity<>("Dataset version unchanged", HttpStatus.OK);
+        }
+        return new ResponseEntity<>("Dataset version changed, the service was refreshed and its caches emptied", HttpStatus.OK);
+    }
+}
+
+// a row pointing to a movie by its id, carrying the movie itself with ?expand=movie
+interface MovieReference {
+    String EXPAND_MOVIE = "movie";
+
+    Long getMovieId();
+
+    void setMovie(Movie movie);
+
+    // no expand or expand=movie, anything else is a bad request
+    static boolean isExpand(String expand) {
+        return expand == null || EXPAND_MOVIE.equals(expand);
+    }
 }
 
 @Entity
-@Table(name = "Movie")
+@Table(name = "Movie", indexes = {
+        @Index(name = "IDX_MOVIE_YEAR", columnList = "movie_year"),
+        @Index(name = "IDX_MOVIE_TITLE", columnList = "movie_title")})
 class Movie {
     @Id
     @Column(name = "movie_id")
@@ -365,9 +1438,13 @@ class Movie {
     }
 }
 
+// the listings by user and by movie are pages in rating_id order, their indexes end with it
 @Entity
-@Table(name = "Rating")
-class Rating {
+@Table(name = "Rating", indexes = {
+        @Index(name = "IDX_RATING_BY_USER", columnList = "user_id, rating_id"),
+        @Index(name = "IDX_RATING_BY_MOVIE", columnList = "movie_id, rating_id"),
+        @Index(name = "IDX_RATING_BY_RATING", columnList = "rating")})
+class Rating implements MovieReference {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "rating_id")
@@ -380,6 +1457,10 @@ class Rating {
     Double rating;
     @Column(name = "timestamp")
     Timestamp timestamp;
+    // only with ?expand=movie
+    @Transient
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    Movie movie;
 
     public Rating() {
     }
@@ -430,11 +1511,24 @@ class Rating {
     public void setTimestamp(Timestamp timestamp) {
         this.timestamp = timestamp;
     }
+
+    public Movie getMovie() {
+        return movie;
+    }
+
+    @Override
+    public void setMovie(Movie movie) {
+        this.movie = movie;
+    }
 }
 
+// the listings by user and by movie are pages in tag_id order, their indexes end with it
 @Entity
-@Table(name = "Tag")
-class Tag {
+@Table(name = "Tag", indexes = {
+        @Index(name = "IDX_TAG_VOCABULARY", columnList = "tag_vocabulary_id"),
+        @Index(name = "IDX_TAG_BY_USER", columnList = "user_id, tag_id"),
+        @Index(name = "IDX_TAG_BY_MOVIE", columnList = "movie_id, tag_id")})
+class Tag implements MovieReference {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "tag_id")
@@ -443,18 +1537,25 @@ class Tag {
     Long userId;
     @Column(name = "movie_id")
     Long movieId;
-    @Column(name = "tag")
+    @Column(name = "tag_vocabulary_id")
+    Integer tagVocabularyId;
+    // the text is kept once in TagVocabulary, read back by primary key
+    @Formula("(SELECT v.tag FROM TagVocabulary v WHERE v.tag_vocabulary_id = tag_vocabulary_id)")
     String tag;
     @Column(name = "timestamp")
     Timestamp timestamp;
+    // only with ?expand=movie
+    @Transient
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    Movie movie;
 
     public Tag() {
     }
 
-    public Tag(Long userId, Long movieId, String tag, Timestamp timestamp) {
+    public Tag(Long userId, Long movieId, Integer tagVocabularyId, Timestamp timestamp) {
         this.userId = userId;
         this.movieId = movieId;
-        this.tag = tag;
+        this.tagVocabularyId = tagVocabularyId;
         this.timestamp = timestamp;
     }
 
@@ -482,12 +1583,16 @@ class Tag {
         this.movieId = movieId;
     }
 
-    public String getTag() {
-        return tag;
+    public Integer getTagVocabularyId() {
+        return tagVocabularyId;
     }
 
-    public void setTag(String tag) {
-        this.tag = tag;
+    public void setTagVocabularyId(Integer tagVocabularyId) {
+        this.tagVocabularyId = tagVocabularyId;
+    }
+
+    public String getTag() {
+        return tag;
     }
 
     public Timestamp getTimestamp() {
@@ -498,14 +1603,325 @@ class Tag {
         this.timestamp = timestamp;
     }
 
+    public Movie getMovie() {
+        return movie;
+    }
+
+    @Override
+    public void setMovie(Movie movie) {
+        this.movie = movie;
+    }
+
     @Override
     public String toString() {
         return "Tag{" +
                 "tagId=" + tagId +
                 ", userId=" + userId +
                 ", movieId=" + movieId +
+                ", tagVocabularyId=" + tagVocabularyId +
                 ", tag='" + tag + '\'' +
                 ", timestamp=" + timestamp +
                 '}';
     }
-}
\ No newline at end of file
+}
+
+@Entity
+@Table(name = "TagVocabulary", uniqueConstraints = @UniqueConstraint(name = "UX_TAG_VOCABULARY_TAG", columnNames = "tag"))
+class TagVocabulary {
+    @Id
+    @Column(name = "tag_vocabulary_id")
+    Integer tagVocabularyId;
+    @Column(name = "tag")
+    String tag;
+
+    public TagVocabulary() {
+    }
+
+    public Integer getTagVocabularyId() {
+        return tagVocabularyId;
+    }
+
+    public void setTagVocabularyId(Integer tagVocabularyId) {
+        this.tagVocabularyId = tagVocabularyId;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+
+    @Override
+    public String toString() {
+        return "TagVocabulary{" +
+                "tagVocabularyId=" + tagVocabularyId +
+                ", tag='" + tag + '\'' +
+                '}';
+    }
+}
+
+// aggregates of the ratings of one movie in half stars, kept by the rating loader
+@Entity
+@Table(name = "MovieRatingStats")
+class MovieRatingStats {
+    @Id
+    @Column(name = "movie_id")
+    private Long movieId;
+    @Column(name = "rating_count")
+    private Long ratingCount = 0L;
+    @Column(name = "half_star_sum")
+    private Long halfStarSum = 0L;
+    @Column(name = "half_star_square_sum")
+    private Long halfStarSquareSum = 0L;
+    @Column(name = "half_stars_1")
+    private Long halfStars1 = 0L;
+    @Column(name = "half_stars_2")
+    private Long halfStars2 = 0L;
+    @Column(name = "half_stars_3")
+    private Long halfStars3 = 0L;
+    @Column(name = "half_stars_4")
+    private Long halfStars4 = 0L;
+    @Column(name = "half_stars_5")
+    private Long halfStars5 = 0L;
+    @Column(name = "half_stars_6")
+    private Long halfStars6 = 0L;
+    @Column(name = "half_stars_7")
+    private Long halfStars7 = 0L;
+    @Column(name = "half_stars_8")
+    private Long halfStars8 = 0L;
+    @Column(name = "half_stars_9")
+    private Long halfStars9 = 0L;
+    @Column(name = "half_stars_10")
+    private Long halfStars10 = 0L;
+
+    public MovieRatingStats() {
+    }
+
+    // the stats of a movie nobody rated yet
+    public MovieRatingStats(Long movieId) {
+        this.movieId = movieId;
+    }
+
+    public Long getMovieId() {
+        return movieId;
+    }
+
+    public Long getCount() {
+        return ratingCount;
+    }
+
+    public Double getMean() {
+        return ratingCount == 0 ? null : halfStarSum / 2.0 / ratingCount;
+    }
+
+    public Double getVariance() {
+        if (ratingCount == 0) {
+            return null;
+        }
+        double mean = halfStarSum / (double) ratingCount;
+        return Math.max(0, halfStarSquareSum / (double) ratingCount - mean * mean) / 4;
+    }
+
+    // number of ratings of each half star value, "0.5" to "5.0"
+    public Map<String, Long> getHistogram() {
+        Long[] halfStars = {halfStars1, halfStars2, halfStars3, halfStars4, halfStars5,
+                halfStars6, halfStars7, halfStars8, halfStars9, halfStars10};
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < halfStars.length; i++) {
+            histogram.put(String.valueOf((i + 1) / 2.0), halfStars[i]);
+        }
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        return "MovieRatingStats{" +
+                "movieId=" + movieId +
+                ", count=" + ratingCount +
+                ", mean=" + getMean() +
+                ", variance=" + getVariance() +
+                '}';
+    }
+}
+
+// one row per loader, bumped at the end of every load, read by DatasetStamp
+@Entity
+@Table(name = "DatasetVersion")
+class DatasetVersion {
+    @Id
+    @Column(name = "loader")
+    String loader;
+    @Column(name = "version", nullable = false)
+    Long version;
+    @Column(name = "changed_at", nullable = false)
+    Timestamp changedAt;
+
+    public DatasetVersion() {}
+}
+
+// One movie of /movies/top, with the number of ratings, their mean and the Bayesian mean it is ranked by
+class TopMovie {
+    private final Movie movie;
+    private final long votes;
+    private final double mean;
+    private final double score;
+    // upper cased, not serialized
+    final Set<String> genres;
+
+    TopMovie(Movie movie, Set<String> genres, long votes, double mean, double score) {
+        this.movie = movie;
+        this.genres = genres;
+        this.votes = votes;
+        this.mean = mean;
+        this.score = score;
+    }
+
+    public Movie getMovie() {
+        return movie;
+    }
+
+    public long getVotes() {
+        return votes;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getScore() {
+        return score;
+    }
+}
+// One movie of /movies/search, with its number of ratings and the score it is ranked by
+class TitleMatch {
+    static final Comparator<TitleMatch> BEST_FIRST = Comparator.comparingDouble(TitleMatch::getScore).reversed()
+            .thenComparing(match -> match.getMovie().getMovieId());
+
+    private final Movie movie;
+    private final long votes;
+    private final double score;
+
+    TitleMatch(Movie movie, long votes, double score) {
+        this.movie = movie;
+        this.votes = votes;
+        this.score = score;
+    }
+
+    public Movie getMovie() {
+        return movie;
+    }
+
+    public long getVotes() {
+        return votes;
+    }
+
+    public double getScore() {
+        return score;
+    }
+}
+
+// One completion of /tags/suggest, with the number of Tag rows using it
+class TagSuggestion {
+    private final String tag;
+    private final int count;
+
+    TagSuggestion(String tag, int count) {
+        this.tag = tag;
+        this.count = count;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
+
+// One movie of /recommendations, with the rating predicted for the user
+class Recommendation {
+    private final Movie movie;
+    private final double score;
+
+    Recommendation(Movie movie, double score) {
+        this.movie = movie;
+        this.score = score;
+    }
+
+    public Movie getMovie() {
+        return movie;
+    }
+
+    public double getScore() {
+        return score;
+    }
+}
+// One pair of /predict, the rating is null in a request, and in a batch answer for a pair the model does not know
+class Prediction {
+    private Long userId;
+    private Long movieId;
+    private Double rating;
+
+    Prediction() {
+    }
+
+    Prediction(Long userId, Long movieId, Double rating) {
+        this.userId = userId;
+        this.movieId = movieId;
+        this.rating = rating;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public Long getMovieId() {
+        return movieId;
+    }
+
+    public void setMovieId(Long movieId) {
+        this.movieId = movieId;
+    }
+
+    public Double getRating() {
+        return rating;
+    }
+
+    public void setRating(Double rating) {
+        this.rating = rating;
+    }
+}
+
+// Compact Rating layout, see META-INF/orm-compact.xml: the rating is stored in half stars, 3.5 as 7
+class HalfStarRatingConverter implements AttributeConverter<Double, Byte> {
+    @Override
+    public Byte convertToDatabaseColumn(Double rating) {
+        return rating == null ? null : (byte) Math.round(rating * 2);
+    }
+
+    @Override
+    public Double convertToEntityAttribute(Byte halfStars) {
+        return halfStars == null ? null : halfStars / 2.0;
+    }
+}
+
+// Compact Rating and Tag layouts, see META-INF/orm-compact.xml: the MovieLens timestamps are stored as epoch seconds
+class EpochSecondsConverter implements AttributeConverter<Timestamp, Integer> {
+    @Override
+    public Integer convertToDatabaseColumn(Timestamp timestamp) {
+        return timestamp == null ? null : Math.toIntExact(timestamp.getTime() / 1000);
+    }
+
+    @Override
+    public Timestamp convertToEntityAttribute(Integer epochSeconds) {
+        return epochSeconds == null ? null : new Timestamp(epochSeconds * 1000L);
+    }
+}
+
@@ -0,0 +1,414 @@
+package com.play.movielens;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// the Movie catalog held in memory with its id, year, title and genre indexes, swapped in one write on reload
+@Component
+@DependsOn("entityManagerFactory")
+class MovieCatalog {
+    private static final String MOVIE_SQL = "SELECT movie_id, movie_title, movie_year, movie_genres FROM Movie ORDER BY movie_id";
+    private static final String GENRE_SQL = "SELECT g.genre_name, mg.movie_id FROM MovieGenre mg JOIN Genre g ON g.genre_id = mg.genre_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private volatile Snapshot snapshot;
+
+    MovieCatalog(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void load() {
+        reload();
+    }
+
+    @Scheduled(cron = "${movielens.catalog.reloadCron:-}")
+    public void scheduledReload() {
+        reload();
+    }
+
+    // synchronized against another reload only, readers keep using the previous snapshot until the swap
+    public synchronized int reload() {
+        long start = System.nanoTime();
+        List<Movie> movies = new ArrayList<>();
+        jdbcTemplate.query(MOVIE_SQL, rs -> {
+            Movie movie = new Movie();
+            movie.setMovieId(rs.getLong(1));
+            movie.setMovieTitle(rs.getString(2));
+            long movieYear = rs.getLong(3);
+            movie.setMovieYear(rs.wasNull() ? null : movieYear);
+            movie.setMovieGenres(rs.getString(4));
+            movies.add(movie);
+        });
+        Snapshot loaded = new Snapshot(movies);
+        jdbcTemplate.query(GENRE_SQL, rs -> {
+            loaded.addGenre(rs.getString(1), rs.getLong(2));
+        });
+        snapshot = loaded;
+        System.out.println(String.format("[MovieCatalog] %s movies, %s years, %s genres loaded in %s ms", loaded.movies.length,
+                loaded.years.length, loaded.genres.size(), (System.nanoTime() - start) / 1_000_000));
+        return loaded.movies.length;
+    }
+
+    // every movie, in movie_id order
+    public List<Movie> getMovies() {
+        return Collections.unmodifiableList(Arrays.asList(snapshot.movies));
+    }
+
+    public Movie getByMovieId(long movieId) {
+        Snapshot current = snapshot;
+        int position = Arrays.binarySearch(current.ids, movieId);
+        return position < 0 ? null : current.movies[position];
+    }
+
+    // in the order of the ids, once each, without the unknown ones
+    public List<Movie> getByMovieIds(Collection<Long> movieIds) {
+        Snapshot current = snapshot;
+        List<Movie> movies = new ArrayList<>(movieIds.size());
+        for (Long movieId : new LinkedHashSet<>(movieIds)) {
+            int position = Arrays.binarySearch(current.ids, movieId);
+            if (position >= 0) {
+                movies.add(current.movies[position]);
+            }
+        }
+        return movies;
+    }
+
+    // ?expand=movie of the rating and tag listings, the movie of each row from the snapshot instead of a query per row
+    public <T extends MovieReference> T withMovie(T row) {
+        Snapshot current = snapshot;
+        int position = row.getMovieId() == null ? -1 : Arrays.binarySearch(current.ids, row.getMovieId());
+        row.setMovie(position < 0 ? null : current.movies[position]);
+        return row;
+    }
+
+    public List<Movie> getByMovieTitle(String movieTitle) {
+        Snapshot current = snapshot;
+        return current.moviesAt(current.titles.getOrDefault(movieTitle, Snapshot.NONE));
+    }
+
+    public List<Movie> getByMovieYear(long movieYear) {
+        Snapshot current = snapshot;
+        int year = Arrays.binarySearch(current.years, movieYear);
+        return year < 0 ? Collections.emptyList() : current.moviesAt(current.yearPositions[year]);
+    }
+
+    // every movie of one snapshot in movie_id order, with the upper cased names of its genres from MovieGenre
+    public Map<Movie, Set<String>> getMoviesWithGenres() {
+        Snapshot current = snapshot;
+        Map<Movie, Set<String>> moviesWithGenres = new LinkedHashMap<>();
+        for (Movie movie : current.movies) {
+            moviesWithGenres.put(movie, new HashSet<>());
+        }
+        for (Map.Entry<String, BitSet> genre : current.genres.entrySet()) {
+            BitSet positions = genre.getValue();
+            for (int position = positions.nextSetBit(0); position >= 0; position = positions.nextSetBit(position + 1)) {
+                moviesWithGenres.get(current.movies[position]).add(genre.getKey());
+            }
+        }
+        return moviesWithGenres;
+    }
+
+    // genre names upper cased, the movies having every one of them
+    public List<Movie> getByAllGenres(Collection<String> genreNames) {
+        Snapshot current = snapshot;
+        BitSet positions = null;
+        for (String genreName : genreNames) {
+            BitSet genre = current.genres.get(genreName);
+            if (genre == null) {
+                // one of the genres does not exist, no movie can have them all
+                return Collections.emptyList();
+            }
+            if (positions == null) {
+                positions = (BitSet) genre.clone();
+            } else {
+                positions.and(genre);
+            }
+        }
+        return positions == null ? Collections.emptyList() : current.moviesAt(positions);
+    }
+
+    // genre names upper cased, the movies having at least one of them
+    public List<Movie> getByAnyGenre(Collection<String> genreNames) {
+        Snapshot current = snapshot;
+        BitSet positions = new BitSet(current.movies.length);
+        for (String genreName : genreNames) {
+            BitSet genre = current.genres.get(genreName);
+            if (genre != null) {
+                positions.or(genre);
+            }
+        }
+        return current.moviesAt(positions);
+    }
+
+    private static class Snapshot {
+        static final int[] NONE = new int[0];
+
+        final Movie[] movies;
+        final long[] ids;
+        final long[] years;
+        final int[][] yearPositions;
+        final Map<String, int[]> titles = new HashMap<>();
+        final Map<String, BitSet> genres = new HashMap<>();
+
+        Snapshot(List<Movie> sortedMovies) {
+            movies = sortedMovies.toArray(new Movie[0]);
+            ids = new long[movies.length];
+            Map<Long, int[]> byYear = new HashMap<>();
+            for (int i = 0; i < movies.length; i++) {
+                ids[i] = movies[i].getMovieId();
+                if (movies[i].getMovieYear() != null) {
+                    byYear.merge(movies[i].getMovieYear(), new int[]{i}, Snapshot::concat);
+                }
+                if (movies[i].getMovieTitle() != null) {
+                    titles.merge(movies[i].getMovieTitle(), new int[]{i}, Snapshot::concat);
+                }
+            }
+            years = new long[byYear.size()];
+            int year = 0;
+            for (Long movieYear : byYear.keySet()) {
+                years[year++] = movieYear;
+            }
+            Arrays.sort(years);
+            yearPositions = new int[years.length][];
+            for (int i = 0; i < years.length; i++) {
+                yearPositions[i] = byYear.get(years[i]);
+            }
+        }
+
+        void addGenre(String genreName, long movieId) {
+            int position = Arrays.binarySearch(ids, movieId);
+            if (genreName != null && position >= 0) {
+                genres.computeIfAbsent(genreName.toUpperCase(Locale.ROOT), name -> new BitSet(movies.length)).set(position);
+            }
+        }
+
+        List<Movie> moviesAt(int[] positions) {
+            List<Movie> result = new ArrayList<>(positions.length);
+            for (int position : positions) {
+                result.add(movies[position]);
+            }
+            return result;
+        }
+
+        List<Movie> moviesAt(BitSet positions) {
+            List<Movie> result = new ArrayList<>(positions.cardinality());
+            for (int position = positions.nextSetBit(0); position >= 0; position = positions.nextSetBit(position + 1)) {
+                result.add(movies[position]);
+            }
+            return result;
+        }
+
+        // positions are appended in movie_id order, so every list stays sorted
+        private static int[] concat(int[] positions, int[] added) {
+            int[] merged = Arrays.copyOf(positions, positions.length + added.length);
+            System.arraycopy(added, 0, merged, positions.length, added.length);
+            return merged;
+        }
+    }
+}
+
+// best rated movies by genre and decade, ranked by Bayesian mean, precomputed from MovieRatingStats
+@Component
+@DependsOn("entityManagerFactory")
+class TopMovies {
+    private static final String STATS_SQL = "SELECT movie_id, rating_count, half_star_sum FROM MovieRatingStats WHERE rating_count > 0";
+    private static final String ANY = "*";
+    private static final Comparator<TopMovie> BEST_FIRST = Comparator.comparingDouble(TopMovie::getScore).reversed()
+            .thenComparing(topMovie -> topMovie.getMovie().getMovieId());
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MovieCatalog movieCatalog;
+    private final int capacity;
+    private final double priorVotes;
+    private volatile Ranking ranking;
+
+    TopMovies(JdbcTemplate jdbcTemplate, MovieCatalog movieCatalog,
+              @Value("${movielens.top.capacity:100}") int capacity,
+              @Value("${movielens.top.priorVotes:10}") double priorVotes) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.movieCatalog = movieCatalog;
+        this.capacity = capacity;
+        this.priorVotes = priorVotes;
+    }
+
+    @PostConstruct
+    public void load() {
+        refresh();
+    }
+
+    @Scheduled(cron = "${movielens.top.refreshCron:-}")
+    public void scheduledRefresh() {
+        refresh();
+    }
+
+    // synchronized against another refresh only, readers keep using the previous ranking until the swap
+    public synchronized int refresh() {
+        long start = System.nanoTime();
+        Map<Long, long[]> votes = new HashMap<>();
+        long[] totals = new long[2];
+        jdbcTemplate.query(STATS_SQL, rs -> {
+            long[] stats = {rs.getLong(2), rs.getLong(3)};
+            votes.put(rs.getLong(1), stats);
+            totals[0] += stats[0];
+            totals[1] += stats[1];
+        });
+        double globalMean = totals[0] == 0 ? 0 : totals[1] / 2.0 / totals[0];
+        List<TopMovie> rated = new ArrayList<>(votes.size());
+        Map<String, PriorityQueue<TopMovie>> heaps = new HashMap<>();
+        long firstDecade = Long.MAX_VALUE;
+        long lastDecade = Long.MIN_VALUE;
+        for (Map.Entry<Movie, Set<String>> movieWithGenres : movieCatalog.getMoviesWithGenres().entrySet()) {
+            Movie movie = movieWithGenres.getKey();
+            long[] stats = votes.get(movie.getMovieId());
+            if (stats == null) {
+                continue;
+            }
+            double mean = stats[1] / 2.0 / stats[0];
+            double score = (priorVotes * globalMean + stats[1] / 2.0) / (priorVotes + stats[0]);
+            TopMovie topMovie = new TopMovie(movie, genresOf(movieWithGenres.getValue()), stats[0], mean, score);
+            rated.add(topMovie);
+            String decade = null;
+            if (movie.getMovieYear() != null) {
+                decade = String.valueOf(decadeOf(movie.getMovieYear()));
+                firstDecade = Math.min(firstDecade, decadeOf(movie.getMovieYear()));
+                lastDecade = Math.max(lastDecade, decadeOf(movie.getMovieYear()));
+            }
+            for (String genre : topMovie.genres) {
+                offer(heaps, key(genre, ANY), topMovie);
+                if (decade != null) {
+                    offer(heaps, key(genre, decade), topMovie);
+                }
+            }
+        }
+        rated.sort(BEST_FIRST);
+        Map<String, TopMovie[]> lists = new HashMap<>();
+        for (Map.Entry<String, PriorityQueue<TopMovie>> heap : heaps.entrySet()) {
+            TopMovie[] best = heap.getValue().toArray(new TopMovie[0]);
+            Arrays.sort(best, BEST_FIRST);
+            lists.put(heap.getKey(), best);
+        }
+        ranking = new Ranking(rated.toArray(new TopMovie[0]), lists, firstDecade, lastDecade);
+        System.out.println(String.format("[TopMovies] %s rated movies, %s lists, mean %.3f, refreshed in %s ms",
+                rated.size(), lists.size(), globalMean, (System.nanoTime() - start) / 1_000_000));
+        return rated.size();
+    }
+
+    // genre upper cased or null for every genre, years inclusive and optional
+    public List<TopMovie> getTop(String genre, Long yearFrom, Long yearTo, int n, long minVotes) {
+        Ranking current = ranking;
+        String genreKey = genre == null ? ANY : genre;
+        boolean byYear = yearFrom != null || yearTo != null;
+        long from = yearFrom == null ? Long.MIN_VALUE : yearFrom;
+        long to = yearTo == null ? Long.MAX_VALUE : yearTo;
+        List<TopMovie[]> candidates = new ArrayList<>();
+        if (!byYear) {
+            candidates.add(current.lists.getOrDefault(key(genreKey, ANY), Ranking.NONE));
+        } else {
+            long first = yearFrom == null ? current.firstDecade : Math.max(decadeOf(yearFrom), current.firstDecade);
+            long last = yearTo == null ? current.lastDecade : Math.min(decadeOf(yearTo), current.lastDecade);
+            for (long decade = first; decade <= last; decade += 10) {
+                candidates.add(current.lists.getOrDefault(key(genreKey, String.valueOf(decade)), Ranking.NONE));
+            }
+        }
+        List<TopMovie> top = new ArrayList<>();
+        boolean complete = true;
+        for (TopMovie[] list : candidates) {
+            int passed = 0;
+            for (TopMovie topMovie : list) {
+                if (matches(topMovie, null, byYear, from, to, minVotes)) {
+                    top.add(topMovie);
+                    passed++;
+                }
+            }
+            // the movies a full list dropped rank below all of its own, n of them passing keeps them out of the top
+            complete &= list.length < capacity || passed >= n;
+        }
+        if (!complete) {
+            top.clear();
+            for (TopMovie topMovie : current.rated) {
+                if (matches(topMovie, genre, byYear, from, to, minVotes) && top.add(topMovie) && top.size() == n) {
+                    break;
+                }
+            }
+            return top;
+        }
+        top.sort(BEST_FIRST);
+        return top.size() > n ? new ArrayList<>(top.subList(0, n)) : top;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private static boolean matches(TopMovie topMovie, String genre, boolean byYear, long from, long to, long minVotes) {
+        Movie movie = topMovie.getMovie();
+        if (topMovie.getVotes() < minVotes) {
+            return false;
+        }
+        if (byYear && (movie.getMovieYear() == null || movie.getMovieYear() < from || movie.getMovieYear() > to)) {
+            return false;
+        }
+        return genre == null || topMovie.genres.contains(genre);
+    }
+
+    private void offer(Map<String, PriorityQueue<TopMovie>> heaps, String key, TopMovie topMovie) {
+        // worst movie at the head, replaced as soon as a better one comes
+        PriorityQueue<TopMovie> heap = heaps.computeIfAbsent(key, k -> new PriorityQueue<>(capacity + 1, BEST_FIRST.reversed()));
+        heap.offer(topMovie);
+        if (heap.size() > capacity) {
+            heap.poll();
+        }
+    }
+
+    // the MovieGenre genres of the catalog, upper cased, and ANY for the lists of every genre
+    private static Set<String> genresOf(Set<String> movieGenres) {
+        Set<String> genres = new HashSet<>(movieGenres);
+        genres.add(ANY);
+        return genres;
+    }
+
+    private static long decadeOf(long year) {
+        return Math.floorDiv(year, 10) * 10;
+    }
+
+    private static String key(String genre, String decade) {
+        return genre + "|" + decade;
+    }
+
+    private static class Ranking {
+        static final TopMovie[] NONE = new TopMovie[0];
+
+        final TopMovie[] rated;
+        final Map<String, TopMovie[]> lists;
+        final long firstDecade;
+        final long lastDecade;
+
+        Ranking(TopMovie[] rated, Map<String, TopMovie[]> lists, long firstDecade, long lastDecade) {
+            this.rated = rated;
+            this.lists = lists;
+            this.firstDecade = firstDecade;
+            this.lastDecade = lastDecade;
+        }
+    }
+}
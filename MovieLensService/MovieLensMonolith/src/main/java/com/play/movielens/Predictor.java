@@ -0,0 +1,209 @@
+package com.play.movielens;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// memory mapped factors of the TrainAls job, see FactorFile there for the layout
+class AlsFactors {
+    private static final int MAGIC = 0x4D4C4146;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 48;
+
+    final int factors;
+    final int users;
+    final int movies;
+    final boolean implicit;
+    final float mean;
+    final float testRmse;
+    final long trainingCount;
+    final long trainedAt;
+    final long bytes;
+    private final IntBuffer userIds;
+    private final IntBuffer movieIds;
+    private final FloatBuffer userFactors;
+    private final FloatBuffer movieFactors;
+
+    private AlsFactors(ByteBuffer buffer, long bytes) {
+        this.factors = buffer.getInt(8);
+        this.users = buffer.getInt(12);
+        this.movies = buffer.getInt(16);
+        this.implicit = buffer.getInt(20) != 0;
+        this.mean = buffer.getFloat(24);
+        this.testRmse = buffer.getFloat(28);
+        this.trainingCount = buffer.getLong(32);
+        this.trainedAt = buffer.getLong(40);
+        this.bytes = bytes;
+        int offset = HEADER_BYTES;
+        this.userIds = buffer.slice(offset, 4 * users).asIntBuffer();
+        offset += 4 * users;
+        this.movieIds = buffer.slice(offset, 4 * movies).asIntBuffer();
+        offset += 4 * movies;
+        this.userFactors = buffer.slice(offset, 4 * users * factors).asFloatBuffer();
+        offset += 4 * users * factors;
+        this.movieFactors = buffer.slice(offset, 4 * movies * factors).asFloatBuffer();
+    }
+
+    static AlsFactors map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a factor file, " + size + " bytes");
+            }
+            // the mapping outlives the channel
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException(file + " is not a factor file of this version");
+            }
+            long expected = HEADER_BYTES + 4L * (buffer.getInt(12) + buffer.getInt(16)) * (1 + buffer.getInt(8));
+            if (size != expected) {
+                throw new IOException(file + " is " + size + " bytes, " + expected + " expected");
+            }
+            return new AlsFactors(buffer, size);
+        }
+    }
+
+    // position of the user in the model, -1 when it had no training rating
+    int userIndex(long userId) {
+        return indexOf(userIds, users, userId);
+    }
+
+    int movieIndex(long movieId) {
+        return indexOf(movieIds, movies, movieId);
+    }
+
+    // mean + x_u . y_m clamped to the star range, or the preference x_u . y_m of an implicit model
+    double predict(int user, int movie) {
+        double dot = 0;
+        int u = user * factors;
+        int m = movie * factors;
+        for (int f = 0; f < factors; f++) {
+            dot += userFactors.get(u + f) * movieFactors.get(m + f);
+        }
+        return implicit ? dot : Math.max(0.5, Math.min(5.0, mean + dot));
+    }
+
+    private static int indexOf(IntBuffer ids, int count, long id) {
+        if (id < Integer.MIN_VALUE || id > Integer.MAX_VALUE) {
+            return -1;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int value = ids.get(middle);
+            if (value < id) {
+                low = middle + 1;
+            } else if (value > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+}
+
+// rating predictions of the AlsFactors in movielens.predict.factorFile, mapped again on reload
+@Component
+class Predictor {
+    private final Path factorFile;
+    private volatile AlsFactors model;
+
+    Predictor(@Value("${movielens.predict.factorFile:_model/als-factors.bin}") String factorFile) {
+        this.factorFile = Paths.get(factorFile);
+    }
+
+    @PostConstruct
+    public void load() {
+        if (Files.exists(factorFile)) {
+            reload();
+        } else {
+            System.out.println(String.format("[Predictor] no factor file at %s, run the TrainAls job", factorFile.toAbsolutePath()));
+        }
+    }
+
+    @Scheduled(cron = "${movielens.predict.reloadCron:-}")
+    public void scheduledReload() {
+        reload();
+    }
+
+    // false when the file is missing or not a factor file, the previous model is kept
+    public synchronized boolean reload() {
+        long start = System.nanoTime();
+        try {
+            AlsFactors mapped = AlsFactors.map(factorFile);
+            model = mapped;
+            System.out.println(String.format("[Predictor] %s factors of %s users and %s movies mapped from %s in %s ms",
+                    mapped.factors, mapped.users, mapped.movies, factorFile.toAbsolutePath(), (System.nanoTime() - start) / 1_000_000));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.println(String.format("[Predictor] unable to map %s, %s", factorFile.toAbsolutePath(), e));
+            return false;
+        }
+    }
+
+    public boolean isReady() {
+        return model != null;
+    }
+
+    // null when the user or the movie had no rating in the training
+    public Double predict(long userId, long movieId) {
+        AlsFactors current = model;
+        int user = current.userIndex(userId);
+        int movie = current.movieIndex(movieId);
+        return user < 0 || movie < 0 ? null : current.predict(user, movie);
+    }
+
+    // fills the rating of every prediction, null for the unknown pairs, all from the same model
+    public void predict(List<Prediction> predictions) {
+        AlsFactors current = model;
+        long lastUserId = 0;
+        int user = -1;
+        for (int i = 0; i < predictions.size(); i++) {
+            Prediction prediction = predictions.get(i);
+            // requests are usually grouped by user, the search is done once per run of the same user
+            if (i == 0 || prediction.getUserId() != lastUserId) {
+                lastUserId = prediction.getUserId();
+                user = current.userIndex(lastUserId);
+            }
+            int movie = current.movieIndex(prediction.getMovieId());
+            prediction.setRating(user < 0 || movie < 0 ? null : current.predict(user, movie));
+        }
+    }
+
+    public Map<String, Object> getModelInfo() {
+        Map<String, Object> info = new LinkedHashMap<>();
+        AlsFactors current = model;
+        info.put("ready", current != null);
+        info.put("factorFile", factorFile.toAbsolutePath().toString());
+        if (current != null) {
+            info.put("implicit", current.implicit);
+            info.put("factors", current.factors);
+            info.put("users", current.users);
+            info.put("movies", current.movies);
+            info.put("bytes", current.bytes);
+            info.put("mean", current.mean);
+            info.put("trainingRatings", current.trainingCount);
+            info.put("testRmse", Float.isNaN(current.testRmse) ? null : current.testRmse);
+            info.put("trainedAt", new Timestamp(current.trainedAt));
+        }
+        return info;
+    }
+}
@@ -0,0 +1,566 @@
+package com.play.movielens;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// item-item neighbours by adjusted cosine, built from Rating and stamped with its DatasetVersion
+class ItemNeighbours {
+    private static final int MAGIC = 0x4D4C4E42;
+    private static final int VERSION = 2;
+
+    final int[] movieIds;
+    final int[] offsets;
+    final int[] neighbours;
+    final float[] similarities;
+    final long ratingCount;
+    final long ratingVersion;
+    final long buildMillis;
+
+    ItemNeighbours(int[] movieIds, int[] offsets, int[] neighbours, float[] similarities, long ratingCount,
+                   long ratingVersion, long buildMillis) {
+        this.movieIds = movieIds;
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.similarities = similarities;
+        this.ratingCount = ratingCount;
+        this.ratingVersion = ratingVersion;
+        this.buildMillis = buildMillis;
+    }
+
+    // position of the movie in movieIds, negative when it has no neighbours
+    int indexOf(long movieId) {
+        return movieId > Integer.MAX_VALUE ? -1 : Arrays.binarySearch(movieIds, (int) movieId);
+    }
+
+    // ratings: user_id, movie_id and half stars; ratingVersion: the DatasetVersion of Rating read before them
+    static ItemNeighbours build(JdbcTemplate jdbcTemplate, String ratingsSql, long expected, long ratingVersion, int k, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1024, expected + expected / 8));
+        int[][] userColumn = {new int[capacity]};
+        int[][] movieColumn = {new int[capacity]};
+        byte[][] halfStarColumn = {new byte[capacity]};
+        int[] size = {0};
+        jdbcTemplate.query(ratingsSql, rs -> {
+            if (size[0] == userColumn[0].length) {
+                int grown = userColumn[0].length + userColumn[0].length / 2;
+                userColumn[0] = Arrays.copyOf(userColumn[0], grown);
+                movieColumn[0] = Arrays.copyOf(movieColumn[0], grown);
+                halfStarColumn[0] = Arrays.copyOf(halfStarColumn[0], grown);
+            }
+            userColumn[0][size[0]] = rs.getInt(1);
+            movieColumn[0][size[0]] = rs.getInt(2);
+            halfStarColumn[0][size[0]] = rs.getByte(3);
+            size[0]++;
+        });
+        int count = size[0];
+        int[] users = userColumn[0];
+        int[] movies = movieColumn[0];
+        byte[] halfStars = halfStarColumn[0];
+        long readMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // dense indexes: user and movie ids replaced by their position in the sorted distinct ids
+        int[] userIds = distinct(users, count);
+        int[] movieIds = distinct(movies, count);
+        int userCount = userIds.length;
+        int movieCount = movieIds.length;
+        double[] userSums = new double[userCount];
+        int[] userOffsets = new int[userCount + 1];
+        int[] movieOffsets = new int[movieCount + 1];
+        for (int r = 0; r < count; r++) {
+            users[r] = Arrays.binarySearch(userIds, users[r]);
+            movies[r] = Arrays.binarySearch(movieIds, movies[r]);
+            userSums[users[r]] += halfStars[r] / 2.0;
+            userOffsets[users[r] + 1]++;
+            movieOffsets[movies[r] + 1]++;
+        }
+        for (int u = 0; u < userCount; u++) {
+            userOffsets[u + 1] += userOffsets[u];
+        }
+        for (int m = 0; m < movieCount; m++) {
+            movieOffsets[m + 1] += movieOffsets[m];
+        }
+        // both CSR layouts of the centred ratings, filled by a counting sort of the rows
+        int[] userMovies = new int[count];
+        float[] userValues = new float[count];
+        int[] movieUsers = new int[count];
+        float[] movieValues = new float[count];
+        int[] userFill = Arrays.copyOf(userOffsets, userCount);
+        int[] movieFill = Arrays.copyOf(movieOffsets, movieCount);
+        double[] norms = new double[movieCount];
+        for (int r = 0; r < count; r++) {
+            int u = users[r];
+            int m = movies[r];
+            int ratings = userOffsets[u + 1] - userOffsets[u];
+            float centred = (float) (halfStars[r] / 2.0 - userSums[u] / ratings);
+            userMovies[userFill[u]] = m;
+            userValues[userFill[u]++] = centred;
+            movieUsers[movieFill[m]] = u;
+            movieValues[movieFill[m]++] = centred;
+            norms[m] += centred * centred;
+        }
+        for (int m = 0; m < movieCount; m++) {
+            norms[m] = Math.sqrt(norms[m]);
+        }
+
+        int[][] neighbourLists = new int[movieCount][];
+        float[][] similarityLists = new float[movieCount][];
+        int threshold = Math.max(16, movieCount / (pool.getParallelism() * 16));
+        pool.invoke(new SimilarityTask(0, movieCount, threshold, k, userOffsets, userMovies, userValues, movieOffsets,
+                movieUsers, movieValues, norms, neighbourLists, similarityLists));
+
+        int[] offsets = new int[movieCount + 1];
+        for (int m = 0; m < movieCount; m++) {
+            offsets[m + 1] = offsets[m] + neighbourLists[m].length;
+        }
+        int[] neighbours = new int[offsets[movieCount]];
+        float[] similarities = new float[offsets[movieCount]];
+        for (int m = 0; m < movieCount; m++) {
+            System.arraycopy(neighbourLists[m], 0, neighbours, offsets[m], neighbourLists[m].length);
+            System.arraycopy(similarityLists[m], 0, similarities, offsets[m], similarityLists[m].length);
+        }
+        long buildMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println(String.format("[ItemNeighbours] %s ratings of %s users and %s movies, %s neighbours, read in %s ms, built in %s ms on %s threads",
+                count, userCount, movieCount, neighbours.length, readMillis, buildMillis, pool.getParallelism()));
+        return new ItemNeighbours(movieIds, offsets, neighbours, similarities, count, ratingVersion, buildMillis);
+    }
+
+    void write(Path file) throws IOException {
+        int bytes = 4 * 4 + 3 * 8 + 4 * (movieIds.length + offsets.length + neighbours.length + similarities.length);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(ratingCount).putLong(ratingVersion).putLong(buildMillis);
+        buffer.putInt(movieIds.length).putInt(neighbours.length);
+        buffer.asIntBuffer().put(movieIds).put(offsets).put(neighbours);
+        buffer.position(buffer.position() + 4 * (movieIds.length + offsets.length + neighbours.length));
+        buffer.asFloatBuffer().put(similarities);
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        // written aside then moved, a crash never leaves a truncated model behind
+        Path written = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(written, buffer.array());
+        Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static ItemNeighbours read(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException(file + " is not an item neighbour model of this version");
+        }
+        long ratingCount = buffer.getLong();
+        long ratingVersion = buffer.getLong();
+        long buildMillis = buffer.getLong();
+        int[] movieIds = new int[buffer.getInt()];
+        int[] offsets = new int[movieIds.length + 1];
+        int[] neighbours = new int[buffer.getInt()];
+        float[] similarities = new float[neighbours.length];
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.get(movieIds).get(offsets).get(neighbours);
+        buffer.position(buffer.position() + 4 * (movieIds.length + offsets.length + neighbours.length));
+        buffer.asFloatBuffer().get(similarities);
+        return new ItemNeighbours(movieIds, offsets, neighbours, similarities, ratingCount, ratingVersion, buildMillis);
+    }
+
+    private static int[] distinct(int[] values, int count) {
+        int[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    // similarities of a range of movies, split in halves down to `threshold`, the K best kept in a min-heap
+    private static class SimilarityTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int threshold;
+        private final int k;
+        private final int[] userOffsets;
+        private final int[] userMovies;
+        private final float[] userValues;
+        private final int[] movieOffsets;
+        private final int[] movieUsers;
+        private final float[] movieValues;
+        private final double[] norms;
+        private final int[][] neighbourLists;
+        private final float[][] similarityLists;
+
+        SimilarityTask(int from, int to, int threshold, int k, int[] userOffsets, int[] userMovies, float[] userValues,
+                       int[] movieOffsets, int[] movieUsers, float[] movieValues, double[] norms,
+                       int[][] neighbourLists, float[][] similarityLists) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.k = k;
+            this.userOffsets = userOffsets;
+            this.userMovies = userMovies;
+            this.userValues = userValues;
+            this.movieOffsets = movieOffsets;
+            this.movieUsers = movieUsers;
+            this.movieValues = movieValues;
+            this.norms = norms;
+            this.neighbourLists = neighbourLists;
+            this.similarityLists = similarityLists;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                invokeAll(split(from, middle), split(middle, to));
+                return;
+            }
+            int movieCount = norms.length;
+            double[] dots = new double[movieCount];
+            int[] touched = new int[movieCount];
+            boolean[] seen = new boolean[movieCount];
+            int[] heapMovies = new int[k];
+            float[] heapSimilarities = new float[k];
+            for (int m = from; m < to; m++) {
+                int touchedCount = 0;
+                for (int r = movieOffsets[m]; r < movieOffsets[m + 1]; r++) {
+                    int u = movieUsers[r];
+                    float value = movieValues[r];
+                    for (int s = userOffsets[u]; s < userOffsets[u + 1]; s++) {
+                        int other = userMovies[s];
+                        if (!seen[other]) {
+                            seen[other] = true;
+                            touched[touchedCount++] = other;
+                        }
+                        dots[other] += value * userValues[s];
+                    }
+                }
+                int heapSize = 0;
+                for (int t = 0; t < touchedCount; t++) {
+                    int other = touched[t];
+                    double dot = dots[other];
+                    dots[other] = 0;
+                    seen[other] = false;
+                    if (other == m || dot <= 0) {
+                        continue;
+                    }
+                    float similarity = (float) (dot / (norms[m] * norms[other]));
+                    if (heapSize < k) {
+                        heapMovies[heapSize] = other;
+                        heapSimilarities[heapSize] = similarity;
+                        siftUp(heapMovies, heapSimilarities, heapSize++);
+                    } else if (similarity > heapSimilarities[0]) {
+                        heapMovies[0] = other;
+                        heapSimilarities[0] = similarity;
+                        siftDown(heapMovies, heapSimilarities, heapSize);
+                    }
+                }
+                // the heap is drained worst first, the list ends up best first
+                int[] best = new int[heapSize];
+                float[] bestSimilarities = new float[heapSize];
+                for (int i = heapSize - 1; i >= 0; i--) {
+                    best[i] = heapMovies[0];
+                    bestSimilarities[i] = heapSimilarities[0];
+                    heapMovies[0] = heapMovies[i];
+                    heapSimilarities[0] = heapSimilarities[i];
+                    siftDown(heapMovies, heapSimilarities, i);
+                }
+                neighbourLists[m] = best;
+                similarityLists[m] = bestSimilarities;
+            }
+        }
+
+        private SimilarityTask split(int from, int to) {
+            return new SimilarityTask(from, to, threshold, k, userOffsets, userMovies, userValues, movieOffsets,
+                    movieUsers, movieValues, norms, neighbourLists, similarityLists);
+        }
+
+        private static void siftUp(int[] movies, float[] similarities, int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (similarities[parent] <= similarities[i]) {
+                    return;
+                }
+                swap(movies, similarities, i, parent);
+                i = parent;
+            }
+        }
+
+        private static void siftDown(int[] movies, float[] similarities, int size) {
+            int i = 0;
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && similarities[left] < similarities[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && similarities[right] < similarities[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(movies, similarities, i, smallest);
+                i = smallest;
+            }
+        }
+
+        private static void swap(int[] movies, float[] similarities, int i, int j) {
+            int movie = movies[i];
+            movies[i] = movies[j];
+            movies[j] = movie;
+            float similarity = similarities[i];
+            similarities[i] = similarities[j];
+            similarities[j] = similarity;
+        }
+    }
+}
+
+// recommendations for a user from the ItemNeighbours model, rebuilt in the background when Rating moves
+@Component
+@DependsOn("entityManagerFactory")
+class Recommender {
+    private static final String COUNT_SQL = "SELECT COUNT(*) FROM Rating";
+    private static final String VERSION_SQL = "SELECT COALESCE(MAX(version), 0) FROM DatasetVersion WHERE loader = 'Rating'";
+    private static final int LATENCIES = 4096;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String ratingsSql;
+    private final String userRatingsSql;
+    private final Path modelFile;
+    private final int neighbours;
+    private final int parallelism;
+    private final boolean buildOnStartup;
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "item-neighbours-build");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean building = new AtomicBoolean();
+    // Rating moved while a build was running, the build may have read the ratings before
+    private final AtomicBoolean stale = new AtomicBoolean();
+    private final ScratchPool<Scores> scores = new ScratchPool<>();
+    private final long[] latencies = new long[LATENCIES];
+    private long requests;
+    private volatile ItemNeighbours model;
+
+    Recommender(JdbcTemplate jdbcTemplate,
+                @Value("${movielens.compact:false}") boolean compact,
+                @Value("${movielens.recommendations.modelFile:_model/item-neighbours.bin}") String modelFile,
+                @Value("${movielens.recommendations.neighbours:50}") int neighbours,
+                @Value("${movielens.recommendations.parallelism:0}") int parallelism,
+                @Value("${movielens.recommendations.buildOnStartup:true}") boolean buildOnStartup) {
+        this.jdbcTemplate = jdbcTemplate;
+        // in half stars, the compact layout stores them as they are
+        String halfStars = compact ? "rating" : "CAST(ROUND(rating * 2) AS TINYINT)";
+        this.ratingsSql = "SELECT user_id, movie_id, " + halfStars + " FROM Rating";
+        this.userRatingsSql = "SELECT movie_id, " + halfStars + " FROM Rating WHERE user_id = ?";
+        this.modelFile = Paths.get(modelFile);
+        this.neighbours = neighbours;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.buildOnStartup = buildOnStartup;
+    }
+
+    @PostConstruct
+    public void load() {
+        if (Files.exists(modelFile)) {
+            try {
+                model = ItemNeighbours.read(modelFile);
+                System.out.println(String.format("[Recommender] model of %s movies read from %s", model.movieIds.length, modelFile.toAbsolutePath()));
+            } catch (IOException | RuntimeException e) {
+                System.out.println(String.format("[Recommender] unable to read %s, %s", modelFile.toAbsolutePath(), e));
+            }
+        }
+        if (model != null && model.ratingVersion == ratingVersion()) {
+            return;
+        }
+        if (buildOnStartup) {
+            rebuild();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        builder.shutdownNow();
+    }
+
+    // called by DatasetStamp when the DatasetVersion of Rating moved, a running build is followed by another one
+    public void ratingsChanged() {
+        if (model == null && !buildOnStartup) {
+            return;
+        }
+        stale.set(true);
+        rebuild();
+    }
+
+    // false when a build is already running
+    public boolean rebuild() {
+        if (!building.compareAndSet(false, true)) {
+            return false;
+        }
+        builder.execute(() -> {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                stale.set(false);
+                long version = ratingVersion();
+                long expected = jdbcTemplate.queryForObject(COUNT_SQL, Long.class);
+                ItemNeighbours built = ItemNeighbours.build(jdbcTemplate, ratingsSql, expected, version, neighbours, pool);
+                built.write(modelFile);
+                model = built;
+                System.out.println(String.format("[Recommender] model of %s movies written to %s", built.movieIds.length, modelFile.toAbsolutePath()));
+            } catch (IOException | RuntimeException e) {
+                System.out.println(String.format("[Recommender] model build failed, %s", e));
+            } finally {
+                pool.shutdown();
+                building.set(false);
+            }
+            if (stale.get()) {
+                rebuild();
+            }
+        });
+        return true;
+    }
+
+    public boolean isReady() {
+        return model != null;
+    }
+
+    // movie ids and predicted ratings, best first, empty for a user without ratings
+    public List<Map.Entry<Long, Double>> recommend(long userId, int n) {
+        long start = System.nanoTime();
+        ItemNeighbours current = model;
+        List<long[]> rated = new ArrayList<>();
+        jdbcTemplate.query(userRatingsSql, rs -> {
+            rated.add(new long[]{rs.getLong(1), rs.getByte(2)});
+        }, userId);
+        double mean = 0;
+        for (long[] rating : rated) {
+            mean += rating[1] / 2.0;
+        }
+        mean = rated.isEmpty() ? 0 : mean / rated.size();
+        // taken once the query answered, so a request waiting for H2 holds none
+        Scores s = scores.take(scratch -> scratch.numerators.length == current.movieIds.length,
+                () -> new Scores(current.movieIds.length));
+        for (long[] rating : rated) {
+            int m = current.indexOf(rating[0]);
+            if (m < 0) {
+                continue;
+            }
+            s.rated[m] = true;
+            double centred = rating[1] / 2.0 - mean;
+            for (int i = current.offsets[m]; i < current.offsets[m + 1]; i++) {
+                int other = current.neighbours[i];
+                if (s.weights[other] == 0) {
+                    s.touched[s.touchedCount++] = other;
+                }
+                s.numerators[other] += current.similarities[i] * centred;
+                s.weights[other] += current.similarities[i];
+            }
+        }
+        List<Map.Entry<Long, Double>> recommendations = new ArrayList<>();
+        PriorityQueue<Map.Entry<Long, Double>> best = new PriorityQueue<>(n + 1, Map.Entry.comparingByValue());
+        for (int t = 0; t < s.touchedCount; t++) {
+            int other = s.touched[t];
+            if (!s.rated[other]) {
+                best.offer(Map.entry((long) current.movieIds[other], mean + s.numerators[other] / (s.weights[other] + 1)));
+                if (best.size() > n) {
+                    best.poll();
+                }
+            }
+            s.numerators[other] = 0;
+            s.weights[other] = 0;
+        }
+        s.touchedCount = 0;
+        for (long[] rating : rated) {
+            int m = current.indexOf(rating[0]);
+            if (m >= 0) {
+                s.rated[m] = false;
+            }
+        }
+        scores.giveBack(s);
+        while (!best.isEmpty()) {
+            recommendations.add(best.poll());
+        }
+        Collections.reverse(recommendations);
+        record(System.nanoTime() - start);
+        return recommendations;
+    }
+
+    // the model and the latency of the last requests, in microseconds
+    public Map<String, Object> getModelInfo() {
+        Map<String, Object> info = new LinkedHashMap<>();
+        ItemNeighbours current = model;
+        info.put("ready", current != null);
+        info.put("building", building.get());
+        if (current != null) {
+            info.put("movies", current.movieIds.length);
+            info.put("neighbours", current.neighbours.length);
+            info.put("ratings", current.ratingCount);
+            info.put("ratingVersion", current.ratingVersion);
+            info.put("buildMillis", current.buildMillis);
+        }
+        long[] sorted;
+        long total;
+        synchronized (latencies) {
+            total = requests;
+            sorted = Arrays.copyOf(latencies, (int) Math.min(requests, LATENCIES));
+        }
+        Arrays.sort(sorted);
+        info.put("requests", total);
+        if (sorted.length > 0) {
+            info.put("p50Micros", sorted[(int) (sorted.length * 0.50)] / 1000);
+            info.put("p99Micros", sorted[(int) (sorted.length * 0.99)] / 1000);
+            info.put("maxMicros", sorted[sorted.length - 1] / 1000);
+        }
+        return info;
+    }
+
+    private long ratingVersion() {
+        return jdbcTemplate.queryForObject(VERSION_SQL, Long.class);
+    }
+
+    private void record(long nanos) {
+        synchronized (latencies) {
+            latencies[(int) (requests++ % LATENCIES)] = nanos;
+        }
+    }
+
+    // taken from the pool for one request, the dense arrays are only cleared where the request wrote
+    private static class Scores {
+        final double[] numerators;
+        final double[] weights;
+        final boolean[] rated;
+        final int[] touched;
+        int touchedCount;
+
+        Scores(int movies) {
+            numerators = new double[movies];
+            weights = new double[movies];
+            rated = new boolean[movies];
+            touched = new int[movies];
+        }
+    }
+}
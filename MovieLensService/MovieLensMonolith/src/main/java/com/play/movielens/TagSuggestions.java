@@ -0,0 +1,334 @@
+package com.play.movielens;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// tag completions for /tags/suggest, a radix trie over TagVocabulary weighted by the number of Tag rows
+@Component
+@DependsOn("entityManagerFactory")
+class TagSuggestions {
+    private static final String STAMP_SQL = "SELECT COUNT(*), COALESCE(MAX(tag_id), 0) FROM Tag";
+    private static final String VOCABULARY_SQL = "SELECT tag_vocabulary_id, tag FROM TagVocabulary WHERE tag_vocabulary_id > ?";
+    private static final String COUNTS_SQL = "SELECT tag_vocabulary_id, COUNT(*) FROM Tag WHERE tag_id > ? AND tag_id <= ? "
+            + "GROUP BY tag_vocabulary_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private volatile Trie trie;
+
+    TagSuggestions(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void load() {
+        refresh();
+    }
+
+    @Scheduled(cron = "${movielens.tags.suggest.refreshCron:-}")
+    public void scheduledRefresh() {
+        refresh();
+    }
+
+    // synchronized against another refresh only, returns the number of Tag rows read
+    public synchronized long refresh() {
+        long start = System.nanoTime();
+        Trie current = trie;
+        long[] stamp = jdbcTemplate.queryForObject(STAMP_SQL, (rs, row) -> new long[]{rs.getLong(1), rs.getLong(2)});
+        if (current != null && stamp[0] == current.tagRows && stamp[1] == current.lastTagId) {
+            return 0;
+        }
+        boolean rebuild = current == null || stamp[0] < current.tagRows || stamp[1] < current.lastTagId;
+        Trie next = rebuild ? new Trie() : current.copy();
+        long rows = apply(next, rebuild ? 0 : current.lastTagId, stamp[1]);
+        if (!rebuild && current.tagRows + rows != stamp[0]) {
+            rebuild = true;
+            next = new Trie();
+            rows = apply(next, 0, stamp[1]);
+        }
+        next.tagRows = rows + (rebuild ? 0 : current.tagRows);
+        next.lastTagId = stamp[1];
+        next.refreshMillis = (System.nanoTime() - start) / 1_000_000;
+        next.rebuilt = rebuild;
+        trie = next;
+        System.out.println(String.format("[TagSuggestions] %s refresh of %s tag rows in %s ms, %s tags, %s nodes, %s KB",
+                rebuild ? "full" : "incremental", rows, next.refreshMillis, next.tagCount, next.nodeCount, next.bytes() / 1024));
+        return rows;
+    }
+
+    // most used first, empty when no tag starts with the prefix
+    public List<TagSuggestion> suggest(String prefix, int n) {
+        Trie current = trie;
+        int node = current.find(prefix);
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        // {count, node or vocabulary id, 1 for a tag}, a tag before a node of the same count
+        PriorityQueue<int[]> heap = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Integer.compare(b[0], a[0])
+                : a[2] != b[2] ? Integer.compare(b[2], a[2]) : Integer.compare(a[1], b[1]));
+        heap.offer(new int[]{current.best[node], node, 0});
+        List<TagSuggestion> suggestions = new ArrayList<>(n);
+        while (!heap.isEmpty() && suggestions.size() < n) {
+            int[] entry = heap.poll();
+            if (entry[2] == 1) {
+                suggestions.add(new TagSuggestion(current.tags[entry[1]], entry[0]));
+                continue;
+            }
+            // a vocabulary entry no Tag row uses any more is not suggested, nor a subtree of such entries
+            int at = entry[1];
+            int tag = current.terminal[at];
+            if (tag > 0 && current.counts[tag] > 0) {
+                heap.offer(new int[]{current.counts[tag], tag, 1});
+            }
+            for (int child = current.firstChild[at]; child >= 0; child = current.nextSibling[child]) {
+                if (current.best[child] > 0) {
+                    heap.offer(new int[]{current.best[child], child, 0});
+                }
+            }
+        }
+        return suggestions;
+    }
+
+    public Map<String, Object> getInfo() {
+        Trie current = trie;
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("tags", current.tagCount);
+        info.put("nodes", current.nodeCount);
+        info.put("tagRows", current.tagRows);
+        info.put("lastTagId", current.lastTagId);
+        info.put("trieBytes", current.trieBytes());
+        info.put("tagBytes", current.tagBytes());
+        info.put("lastRefresh", current.rebuilt ? "full" : "incremental");
+        info.put("lastRefreshMillis", current.refreshMillis);
+        return info;
+    }
+
+    // inserts the vocabulary entries past the trie's and adds the Tag rows in (afterTagId, lastTagId]
+    private long apply(Trie next, long afterTagId, long lastTagId) {
+        List<Object[]> added = new ArrayList<>();
+        jdbcTemplate.query(VOCABULARY_SQL, rs -> {
+            added.add(new Object[]{rs.getInt(1), rs.getString(2)});
+        }, next.lastVocabularyId);
+        for (Object[] entry : added) {
+            next.insert((String) entry[1], (Integer) entry[0]);
+        }
+        long[] rows = new long[1];
+        jdbcTemplate.query(COUNTS_SQL, rs -> {
+            int id = rs.getInt(1);
+            int count = rs.getInt(2);
+            // rows without a vocabulary id are counted for the check of the total only
+            if (id > 0 && id < next.tags.length && next.tags[id] != null) {
+                next.addCount(id, count);
+            }
+            rows[0] += count;
+        }, afterTagId, lastTagId);
+        return rows[0];
+    }
+
+    private static class Trie {
+        private static final int ROOT = 0;
+
+        // by vocabulary id
+        String[] tags = new String[1024];
+        int[] counts = new int[1024];
+        // by node
+        int[] labelStart = new int[1024];
+        int[] labelLength = new int[1024];
+        int[] firstChild = new int[1024];
+        int[] nextSibling = new int[1024];
+        int[] terminal = new int[1024];
+        int[] best = new int[1024];
+        char[] pool = new char[4096];
+        int nodeCount = 1;
+        int poolSize;
+        int tagCount;
+        int lastVocabularyId;
+        long tagRows;
+        long lastTagId;
+        long refreshMillis;
+        boolean rebuilt;
+
+        Trie() {
+            firstChild[ROOT] = -1;
+            nextSibling[ROOT] = -1;
+        }
+
+        Trie copy() {
+            Trie copy = new Trie();
+            copy.tags = tags.clone();
+            copy.counts = counts.clone();
+            copy.labelStart = labelStart.clone();
+            copy.labelLength = labelLength.clone();
+            copy.firstChild = firstChild.clone();
+            copy.nextSibling = nextSibling.clone();
+            copy.terminal = terminal.clone();
+            copy.best = best.clone();
+            copy.pool = pool.clone();
+            copy.nodeCount = nodeCount;
+            copy.poolSize = poolSize;
+            copy.tagCount = tagCount;
+            copy.lastVocabularyId = lastVocabularyId;
+            copy.tagRows = tagRows;
+            copy.lastTagId = lastTagId;
+            return copy;
+        }
+
+        // the node whose subtree holds every tag starting with the prefix, -1 when there is none
+        int find(String prefix) {
+            int node = ROOT;
+            int i = 0;
+            while (i < prefix.length()) {
+                int child = child(node, prefix.charAt(i));
+                if (child < 0) {
+                    return -1;
+                }
+                int length = Math.min(labelLength[child], prefix.length() - i);
+                for (int k = 0; k < length; k++) {
+                    if (pool[labelStart[child] + k] != prefix.charAt(i + k)) {
+                        return -1;
+                    }
+                }
+                node = child;
+                i += length;
+            }
+            return node;
+        }
+
+        void insert(String tag, int id) {
+            if (id >= tags.length) {
+                int grown = Math.max(id + 1, tags.length * 2);
+                tags = Arrays.copyOf(tags, grown);
+                counts = Arrays.copyOf(counts, grown);
+            }
+            lastVocabularyId = Math.max(lastVocabularyId, id);
+            // vocabulary ids start at 1, 0 marks a node where no tag ends
+            if (id <= 0 || tag.isEmpty() || tags[id] != null) {
+                return;
+            }
+            tags[id] = tag;
+            tagCount++;
+            int node = ROOT;
+            int i = 0;
+            while (i < tag.length()) {
+                int child = child(node, tag.charAt(i));
+                if (child < 0) {
+                    child = newNode(tag, i);
+                    nextSibling[child] = firstChild[node];
+                    firstChild[node] = child;
+                    i = tag.length();
+                    node = child;
+                    break;
+                }
+                int common = 1;
+                while (common < labelLength[child] && i + common < tag.length()
+                        && pool[labelStart[child] + common] == tag.charAt(i + common)) {
+                    common++;
+                }
+                if (common < labelLength[child]) {
+                    split(child, common);
+                }
+                node = child;
+                i += common;
+            }
+            terminal[node] = id;
+        }
+
+        // counts only grow between full refreshes, so the highest count of a node is raised, never lowered
+        void addCount(int id, int count) {
+            counts[id] += count;
+            String tag = tags[id];
+            int node = ROOT;
+            int i = 0;
+            best[ROOT] = Math.max(best[ROOT], counts[id]);
+            while (i < tag.length()) {
+                node = child(node, tag.charAt(i));
+                best[node] = Math.max(best[node], counts[id]);
+                i += labelLength[node];
+            }
+        }
+
+        long trieBytes() {
+            return 4L * (labelStart.length + labelLength.length + firstChild.length + nextSibling.length
+                    + terminal.length + best.length) + 2L * pool.length;
+        }
+
+        // the strings, Latin-1 ones stored a byte per char, their references and the counts
+        long tagBytes() {
+            long bytes = 8L * tags.length + 4L * counts.length;
+            for (String tag : tags) {
+                if (tag != null) {
+                    bytes += 24 + 16 + tag.length();
+                }
+            }
+            return bytes;
+        }
+
+        long bytes() {
+            return trieBytes() + tagBytes();
+        }
+
+        private int child(int node, char c) {
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                if (pool[labelStart[child]] == c) {
+                    return child;
+                }
+            }
+            return -1;
+        }
+
+        // a leaf labelled with the rest of the tag from `from`
+        private int newNode(String tag, int from) {
+            int length = tag.length() - from;
+            if (poolSize + length > pool.length) {
+                pool = Arrays.copyOf(pool, Math.max(poolSize + length, pool.length * 2));
+            }
+            tag.getChars(from, tag.length(), pool, poolSize);
+            int node = allocate();
+            labelStart[node] = poolSize;
+            labelLength[node] = length;
+            poolSize += length;
+            return node;
+        }
+
+        // the node keeps the first `at` chars and its id, a new child takes the rest with its children and tag
+        private void split(int node, int at) {
+            int tail = allocate();
+            labelStart[tail] = labelStart[node] + at;
+            labelLength[tail] = labelLength[node] - at;
+            firstChild[tail] = firstChild[node];
+            terminal[tail] = terminal[node];
+            best[tail] = best[node];
+            labelLength[node] = at;
+            firstChild[node] = tail;
+            terminal[node] = 0;
+        }
+
+        private int allocate() {
+            if (nodeCount == labelStart.length) {
+                int grown = nodeCount * 2;
+                labelStart = Arrays.copyOf(labelStart, grown);
+                labelLength = Arrays.copyOf(labelLength, grown);
+                firstChild = Arrays.copyOf(firstChild, grown);
+                nextSibling = Arrays.copyOf(nextSibling, grown);
+                terminal = Arrays.copyOf(terminal, grown);
+                best = Arrays.copyOf(best, grown);
+            }
+            int node = nodeCount++;
+            firstChild[node] = -1;
+            nextSibling[node] = -1;
+            terminal[node] = 0;
+            best[node] = 0;
+            return node;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.play.movielens;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// scratch arrays sized to the catalog, shared by the requests instead of held per thread
+class ScratchPool<T> {
+    private final ArrayBlockingQueue<T> free = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    public T take(Predicate<T> fits, Supplier<T> make) {
+        T scratch = free.poll();
+        while (scratch != null && !fits.test(scratch)) {
+            scratch = free.poll();
+        }
+        return scratch != null ? scratch : make.get();
+    }
+
+    // once cleared, a request failing half way drops its scratch instead
+    public void giveBack(T scratch) {
+        free.offer(scratch);
+    }
+}
+
+// title search over the MovieCatalog, an inverted index of normalized tokens with trigrams for typos
+@Component
+@DependsOn("entityManagerFactory")
+class TitleSearch {
+    private static final String VOTES_SQL = "SELECT movie_id, rating_count FROM MovieRatingStats WHERE rating_count > 0";
+    private static final int MAX_TOKENS = 10;
+    private static final int MAX_PREFIX_TERMS = 64;
+    private static final int MAX_FUZZY_TERMS = 16;
+    private static final double PREFIX_WEIGHT = 0.9;
+    private static final double FUZZY_WEIGHT = 0.8;
+    private static final double MIN_DICE = 0.4;
+    private static final double COVERAGE_WEIGHT = 0.1;
+    private static final double POPULARITY_WEIGHT = 0.2;
+    // a, b, .. z, 0 .. 9 and the $ padding of the trigrams
+    private static final int ALPHABET = 37;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MovieCatalog movieCatalog;
+    private final ScratchPool<Scratch> scratches = new ScratchPool<>();
+    private volatile Index index;
+
+    TitleSearch(JdbcTemplate jdbcTemplate, MovieCatalog movieCatalog) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.movieCatalog = movieCatalog;
+    }
+
+    @PostConstruct
+    public void load() {
+        rebuild();
+    }
+
+    // synchronized against another rebuild only, searches keep using the previous index until the swap
+    public synchronized int rebuild() {
+        long start = System.nanoTime();
+        Map<Long, Long> votes = new HashMap<>();
+        jdbcTemplate.query(VOTES_SQL, rs -> {
+            votes.put(rs.getLong(1), rs.getLong(2));
+        });
+        Index built = new Index(movieCatalog.getMovies(), votes);
+        index = built;
+        System.out.println(String.format("[TitleSearch] %s titles, %s tokens, %s trigrams indexed in %s ms", built.movies.length,
+                built.terms.length, built.trigramCount, (System.nanoTime() - start) / 1_000_000));
+        return built.terms.length;
+    }
+
+    // best match first, empty when the query has no token
+    public List<TitleMatch> search(String query, int limit) {
+        Index current = index;
+        List<String> tokens = tokens(query);
+        if (tokens.size() > MAX_TOKENS) {
+            tokens = tokens.subList(0, MAX_TOKENS);
+        }
+        if (tokens.isEmpty() || current.movies.length == 0) {
+            return Collections.emptyList();
+        }
+        Scratch s = scratches.take(scratch -> scratch.scores.length == current.movies.length
+                && scratch.shared.length == current.terms.length, () -> new Scratch(current.movies.length, current.terms.length));
+        double maxIdf = Math.log(1 + current.movies.length);
+        double queryWeight = 0;
+        for (int t = 0; t < tokens.size(); t++) {
+            String token = tokens.get(t);
+            s.candidateCount = 0;
+            int exact = Arrays.binarySearch(current.terms, token);
+            if (exact >= 0) {
+                s.addCandidate(exact, 1);
+            }
+            if (t == tokens.size() - 1 && token.length() >= 2) {
+                int from = exact >= 0 ? exact + 1 : -exact - 1;
+                for (int term = from; term < current.terms.length && term < from + MAX_PREFIX_TERMS
+                        && current.terms[term].startsWith(token); term++) {
+                    s.addCandidate(term, PREFIX_WEIGHT);
+                }
+            }
+            if (exact < 0 && token.length() >= 3) {
+                fuzzy(current, token, s);
+            }
+            // the idf of the token itself, else of its best guess; a token matching nothing counts as the rarest
+            double tokenIdf = exact >= 0 ? current.idf[exact] : s.candidateCount == 0 ? maxIdf : 0;
+            if (exact < 0) {
+                for (int c = 0; c < s.candidateCount; c++) {
+                    tokenIdf = Math.max(tokenIdf, current.idf[s.candidateTerms[c]]);
+                }
+            }
+            queryWeight += tokenIdf;
+            for (int c = 0; c < s.candidateCount; c++) {
+                int term = s.candidateTerms[c];
+                double weight = s.candidateWeights[c] * tokenIdf;
+                for (int p = current.offsets[term]; p < current.offsets[term + 1]; p++) {
+                    int position = current.postings[p];
+                    if (s.tokenScores[position] == 0) {
+                        s.tokenTouched[s.tokenTouchedCount++] = position;
+                    }
+                    s.tokenScores[position] = Math.max(s.tokenScores[position], weight);
+                }
+            }
+            for (int i = 0; i < s.tokenTouchedCount; i++) {
+                int position = s.tokenTouched[i];
+                if (s.scores[position] == 0) {
+                    s.touched[s.touchedCount++] = position;
+                }
+                s.scores[position] += s.tokenScores[position];
+                s.matchedTokens[position]++;
+                s.tokenScores[position] = 0;
+            }
+            s.tokenTouchedCount = 0;
+        }
+        PriorityQueue<TitleMatch> best = new PriorityQueue<>(limit + 1, TitleMatch.BEST_FIRST.reversed());
+        for (int i = 0; i < s.touchedCount; i++) {
+            int position = s.touched[i];
+            double match = Math.min(1, s.scores[position] / queryWeight);
+            double coverage = Math.min(1, (double) s.matchedTokens[position] / Math.max(1, current.tokenCounts[position]));
+            double score = match + COVERAGE_WEIGHT * coverage + POPULARITY_WEIGHT * current.popularity[position];
+            // a common word touches thousands of titles, only the ones entering the heap are allocated
+            TitleMatch worst = best.size() < limit ? null : best.peek();
+            if (worst == null || score > worst.getScore()
+                    || (score == worst.getScore() && current.movies[position].getMovieId() < worst.getMovie().getMovieId())) {
+                best.offer(new TitleMatch(current.movies[position], current.votes[position], score));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+            s.scores[position] = 0;
+            s.matchedTokens[position] = 0;
+        }
+        s.touchedCount = 0;
+        scratches.giveBack(s);
+        List<TitleMatch> matches = new ArrayList<>(best);
+        matches.sort(TitleMatch.BEST_FIRST);
+        return matches;
+    }
+
+    // the terms sharing at least MIN_DICE of their trigrams with the token, the closest MAX_FUZZY_TERMS of them
+    private static void fuzzy(Index current, String token, Scratch s) {
+        int[] trigrams = trigrams(token);
+        int sharedCount = 0;
+        for (int trigram : trigrams) {
+            int[] terms = current.trigramTerms[trigram];
+            if (terms == null) {
+                continue;
+            }
+            for (int term : terms) {
+                if (s.shared[term] == 0) {
+                    s.sharedTouched[sharedCount++] = term;
+                }
+                s.shared[term]++;
+            }
+        }
+        PriorityQueue<double[]> closest = new PriorityQueue<>(MAX_FUZZY_TERMS + 1, Comparator.comparingDouble(c -> c[1]));
+        for (int i = 0; i < sharedCount; i++) {
+            int term = s.sharedTouched[i];
+            double dice = 2.0 * s.shared[term] / (trigrams.length + current.trigramCounts[term]);
+            s.shared[term] = 0;
+            if (dice >= MIN_DICE) {
+                closest.offer(new double[]{term, dice});
+                if (closest.size() > MAX_FUZZY_TERMS) {
+                    closest.poll();
+                }
+            }
+        }
+        for (double[] candidate : closest) {
+            s.addCandidate((int) candidate[0], FUZZY_WEIGHT * candidate[1]);
+        }
+    }
+
+    // lower cased ASCII letters and digits of each whitespace separated word, like the titles stored by the loader
+    static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (c >= 'A' && c <= 'Z') {
+                token.append((char) (c + ('a' - 'A')));
+            } else if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                token.append(c);
+            } else if (Character.isWhitespace(c) && token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    // distinct trigrams of "$token$", each packed in base ALPHABET
+    private static int[] trigrams(String token) {
+        int[] codes = new int[token.length() + 2];
+        codes[0] = ALPHABET - 1;
+        codes[codes.length - 1] = ALPHABET - 1;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            codes[i + 1] = c <= '9' ? 26 + (c - '0') : c - 'a';
+        }
+        int[] trigrams = new int[token.length()];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = (codes[i] * ALPHABET + codes[i + 1]) * ALPHABET + codes[i + 2];
+        }
+        Arrays.sort(trigrams);
+        int distinct = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    private static class Index {
+        final Movie[] movies;
+        final long[] votes;
+        final double[] popularity;
+        final int[] tokenCounts;
+        final String[] terms;
+        final double[] idf;
+        final int[] offsets;
+        final int[] postings;
+        final int[][] trigramTerms = new int[ALPHABET * ALPHABET * ALPHABET][];
+        final int[] trigramCounts;
+        int trigramCount;
+
+        Index(List<Movie> catalog, Map<Long, Long> movieVotes) {
+            movies = catalog.toArray(new Movie[0]);
+            votes = new long[movies.length];
+            popularity = new double[movies.length];
+            tokenCounts = new int[movies.length];
+            long maxVotes = 0;
+            Map<String, List<Integer>> byTerm = new HashMap<>();
+            int postingCount = 0;
+            for (int position = 0; position < movies.length; position++) {
+                votes[position] = movieVotes.getOrDefault(movies[position].getMovieId(), 0L);
+                maxVotes = Math.max(maxVotes, votes[position]);
+                Set<String> distinct = new LinkedHashSet<>(tokens(movies[position].getMovieTitle()));
+                tokenCounts[position] = distinct.size();
+                for (String token : distinct) {
+                    byTerm.computeIfAbsent(token, key -> new ArrayList<>()).add(position);
+                    postingCount++;
+                }
+            }
+            for (int position = 0; position < movies.length; position++) {
+                popularity[position] = maxVotes == 0 ? 0 : Math.log1p(votes[position]) / Math.log1p(maxVotes);
+            }
+            terms = byTerm.keySet().toArray(new String[0]);
+            Arrays.sort(terms);
+            idf = new double[terms.length];
+            offsets = new int[terms.length + 1];
+            postings = new int[postingCount];
+            trigramCounts = new int[terms.length];
+            Map<Integer, List<Integer>> byTrigram = new HashMap<>();
+            for (int term = 0; term < terms.length; term++) {
+                // positions were added in catalog order, every list is sorted
+                List<Integer> positions = byTerm.get(terms[term]);
+                offsets[term + 1] = offsets[term] + positions.size();
+                for (int i = 0; i < positions.size(); i++) {
+                    postings[offsets[term] + i] = positions.get(i);
+                }
+                idf[term] = Math.log(1 + (double) movies.length / positions.size());
+                int[] trigrams = trigrams(terms[term]);
+                trigramCounts[term] = trigrams.length;
+                for (int trigram : trigrams) {
+                    byTrigram.computeIfAbsent(trigram, key -> new ArrayList<>()).add(term);
+                }
+            }
+            for (Map.Entry<Integer, List<Integer>> trigram : byTrigram.entrySet()) {
+                int[] trigramTermIds = new int[trigram.getValue().size()];
+                for (int i = 0; i < trigramTermIds.length; i++) {
+                    trigramTermIds[i] = trigram.getValue().get(i);
+                }
+                trigramTerms[trigram.getKey()] = trigramTermIds;
+            }
+            trigramCount = byTrigram.size();
+        }
+    }
+
+    // taken from the pool for one search, the dense arrays are only cleared where the search wrote
+    private static class Scratch {
+        final double[] scores;
+        final double[] tokenScores;
+        final int[] matchedTokens;
+        final int[] touched;
+        final int[] tokenTouched;
+        final int[] shared;
+        final int[] sharedTouched;
+        final int[] candidateTerms = new int[1 + MAX_PREFIX_TERMS + MAX_FUZZY_TERMS];
+        final double[] candidateWeights = new double[candidateTerms.length];
+        int touchedCount;
+        int tokenTouchedCount;
+        int candidateCount;
+
+        Scratch(int movies, int terms) {
+            scores = new double[movies];
+            tokenScores = new double[movies];
+            matchedTokens = new int[movies];
+            touched = new int[movies];
+            tokenTouched = new int[movies];
+            shared = new int[terms];
+            sharedTouched = new int[terms];
+        }
+
+        void addCandidate(int term, double weight) {
+            candidateTerms[candidateCount] = term;
+            candidateWeights[candidateCount++] = weight;
+        }
+    }
+}
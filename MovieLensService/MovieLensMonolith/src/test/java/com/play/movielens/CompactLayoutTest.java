@@ -0,0 +1,92 @@
+package com.play.movielens;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The same Rating and Tag rows, written in the wide layout and in the compact one the way the writers of the loaders
+ * write them, read back through the endpoints of two services, one per layout: the JSON is the same, to the
+ * timestamp, which is the instant of the epoch seconds of the MovieLens csv.
+ */
+class CompactLayoutTest {
+    // 2000-07-30T18:45:03Z
+    private static final long EPOCH_SECONDS = 964982703L;
+
+    private static ConfigurableApplicationContext wide;
+    private static ConfigurableApplicationContext compact;
+
+    @BeforeAll
+    static void start() {
+        wide = start("wide");
+        compact = start("compact", "--spring.profiles.active=compact");
+        // LoadRatings and LoadTags: a Timestamp of the epoch seconds, or the epoch seconds as an INT and half stars
+        new JdbcTemplate(wide.getBean(DataSource.class)).update(
+                "INSERT INTO Rating (user_id, movie_id, rating, timestamp) VALUES (?, ?, ?, ?)",
+                1L, 296L, 4.5, new Timestamp(EPOCH_SECONDS * 1000L));
+        new JdbcTemplate(compact.getBean(DataSource.class)).update(
+                "INSERT INTO Rating (user_id, movie_id, rating, timestamp) VALUES (?, ?, ?, ?)",
+                1, 296, (byte) 9, (int) EPOCH_SECONDS);
+        for (ConfigurableApplicationContext context : new ConfigurableApplicationContext[]{wide, compact}) {
+            JdbcTemplate jdbc = new JdbcTemplate(context.getBean(DataSource.class));
+            jdbc.update("INSERT INTO TagVocabulary (tag_vocabulary_id, tag) VALUES (1, 'dark comedy')");
+            jdbc.update("INSERT INTO Tag (user_id, movie_id, tag_vocabulary_id, timestamp) VALUES (?, ?, ?, ?)",
+                    2, 296, 1, context == wide ? new Timestamp(EPOCH_SECONDS * 1000L) : (Object) (int) EPOCH_SECONDS);
+        }
+    }
+
+    private static ConfigurableApplicationContext start(String name, String... args) {
+        List<String> arguments = new ArrayList<>(List.of(
+                "--spring.datasource.url=jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1",
+                "--spring.sql.init.schema-locations=classpath:loader-tables.sql",
+                "--server.port=0",
+                "--spring.cache.type=none",
+                "--movielens.dataset.checkCron=-",
+                "--movielens.tags.suggest.refreshCron=-",
+                "--movielens.recommendations.buildOnStartup=false",
+                "--movielens.recommendations.modelFile=target/" + name + "/item-neighbours.bin",
+                "--movielens.predict.factorFile=target/" + name + "/als-factors.bin"));
+        arguments.addAll(List.of(args));
+        return new SpringApplicationBuilder(App.class).run(arguments.toArray(new String[0]));
+    }
+
+    @AfterAll
+    static void stop() {
+        wide.close();
+        compact.close();
+    }
+
+    @Test
+    void ratingJsonIsTheSameInBothLayouts() throws Exception {
+        String json = json(wide, "/ratings/1");
+        assertThat(json).contains("\"rating\":4.5").contains("2000-07-30T18:45:03");
+        assertThat(json(compact, "/ratings/1")).isEqualTo(json);
+    }
+
+    @Test
+    void tagJsonIsTheSameInBothLayouts() throws Exception {
+        String json = json(wide, "/tags/1");
+        assertThat(json).contains("\"tag\":\"dark comedy\"").contains("2000-07-30T18:45:03");
+        assertThat(json(compact, "/tags/1")).isEqualTo(json);
+    }
+
+    private static String json(ConfigurableApplicationContext context, String path) throws Exception {
+        MockMvc mvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+        return mvc.perform(get(path)).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    }
+}
@@ -0,0 +1,216 @@
+package com.play.movielens;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.core.RepositoryInformation;
+import org.springframework.data.repository.support.Repositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Plan check of the repositories. Every query method declared by a repository is called once with sample arguments
+ * against a few thousand movies, ratings and tags, the selects Hibernate sends for it are explained by H2, and the
+ * test fails when a plan reads a whole table or index, a "tableScan" or an index without condition, or compares a
+ * column with a parameter that no index condition uses, like a walk of the primary key filtering on user_id. A query
+ * added without its index fails here before it is served.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:plans;DB_CLOSE_DELAY=-1",
+        "spring.sql.init.schema-locations=classpath:loader-tables.sql",
+        "spring.cache.type=none",
+        "movielens.dataset.checkCron=-",
+        "movielens.tags.suggest.refreshCron=-",
+        "movielens.recommendations.buildOnStartup=false",
+        "movielens.recommendations.modelFile=target/plans/item-neighbours.bin",
+        "movielens.predict.factorFile=target/plans/als-factors.bin"})
+class QueryPlanTest {
+    // "/* PUBLIC.RATING.tableScan */" or "/* PUBLIC.IDX_X */", an access without condition
+    private static final Pattern FULL_SCAN = Pattern.compile("/\\* [\\w.]+ \\*/");
+    // "/* PUBLIC.IDX_X: USER_ID = ?1 AND ...", the conditions the index seeks on, up to the end of the comment
+    private static final Pattern INDEX_CONDITION = Pattern.compile("/\\* [\\w.]+: ([^*]*)");
+    // "R"."USER_ID" = ?1 or "R"."GENRE_ID" IN(?1, ?2) of the where clause, the columns are only quoted there
+    private static final Pattern EQUALITY = Pattern.compile("\"\\s*(?:=|IN\\()\\s*(\\?\\d+(?:\\s*,\\s*\\?\\d+)*)");
+    private static final Pattern PARAMETER = Pattern.compile("\\?\\d+");
+
+    private static final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+    private static volatile boolean recording;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @TestConfiguration
+    static class RecordedStatements {
+        @Bean
+        static HibernatePropertiesCustomizer planCheckStatementInspector() {
+            return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, (StatementInspector) sql -> {
+                if (recording) {
+                    statements.add(sql);
+                }
+                return sql;
+            });
+        }
+    }
+
+    @Test
+    void everyRepositoryQueryReadsThroughAnIndex() {
+        // enough rows that a scan costs more than a seek, H2 plans an empty table with a scan
+        jdbcTemplate.execute("INSERT INTO Movie (movie_id, movie_title, movie_year, movie_genres) "
+                + "SELECT X, 'Movie ' || X, 1900 + MOD(X, 120), 'Comedy' FROM SYSTEM_RANGE(1, 5000)");
+        jdbcTemplate.execute("INSERT INTO Rating (user_id, movie_id, rating, timestamp) "
+                + "SELECT MOD(X, 1000) + 1, MOD(X, 5000) + 1, MOD(X, 10) / 2.0 + 0.5, CURRENT_TIMESTAMP FROM SYSTEM_RANGE(1, 50000)");
+        jdbcTemplate.execute("INSERT INTO TagVocabulary (tag_vocabulary_id, tag) SELECT X, 'tag ' || X FROM SYSTEM_RANGE(1, 500)");
+        jdbcTemplate.execute("INSERT INTO Tag (user_id, movie_id, tag_vocabulary_id, timestamp) "
+                + "SELECT MOD(X, 1000) + 1, MOD(X, 5000) + 1, MOD(X, 500) + 1, CURRENT_TIMESTAMP FROM SYSTEM_RANGE(1, 20000)");
+        jdbcTemplate.execute("INSERT INTO MovieRatingStats (movie_id, rating_count, half_star_sum) "
+                + "SELECT X, 10, 70 FROM SYSTEM_RANGE(1, 5000)");
+        jdbcTemplate.execute("ANALYZE");
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        Repositories repositories = new Repositories(applicationContext);
+        List<String> checked = new ArrayList<>();
+        List<String> scans = new ArrayList<>();
+        for (Class<?> domainType : repositories) {
+            RepositoryInformation information = repositories.getRequiredRepositoryInformation(domainType);
+            Object repository = repositories.getRepositoryFor(domainType).orElseThrow();
+            for (Method method : information.getQueryMethods()) {
+                String name = information.getRepositoryInterface().getSimpleName() + "." + method.getName();
+                checked.add(name);
+                for (String sql : statementsOf(transactionTemplate, repository, method)) {
+                    String plan = String.join("\n", jdbcTemplate.query(con -> con.prepareStatement("EXPLAIN " + sql),
+                            (rs, rowNum) -> rs.getString(1)));
+                    String problem = problemOf(plan);
+                    if (problem != null) {
+                        scans.add(String.format("%s %s\n%s", name, problem, plan));
+                    }
+                }
+            }
+        }
+        assertThat(checked).contains("RatingRepository.getByUserIdAndRatingIdGreaterThanOrderByRatingId",
+                "TagRepository.getByTagVocabularyId", "MovieRatingStatsRepository.getByMovieId");
+        assertThat(scans).isEmpty();
+    }
+
+    @Test
+    void flagsScansAndFiltersWithoutIndex() {
+        assertThat(problemOf("SELECT \"R\".\"RATING_ID\" FROM \"PUBLIC\".\"RATING\" \"R\" /* PUBLIC.RATING.tableScan */ "
+                + "WHERE \"R\".\"RATING\" = ?1")).isEqualTo("FULL SCAN");
+        assertThat(problemOf("SELECT \"R\".\"RATING_ID\" FROM \"PUBLIC\".\"RATING\" \"R\" /* PUBLIC.PRIMARY_KEY_8: RATING_ID > ?2 */ "
+                + "WHERE (\"R\".\"USER_ID\" = ?1) AND (\"R\".\"RATING_ID\" > ?2)")).isEqualTo("FILTER WITHOUT INDEX on [?1]");
+        assertThat(problemOf("SELECT \"R\".\"RATING_ID\" FROM \"PUBLIC\".\"RATING\" \"R\" /* PUBLIC.IDX_RATING_BY_USER: USER_ID = ?1 AND RATING_ID > ?2 */ "
+                + "WHERE (\"R\".\"USER_ID\" = ?1) AND (\"R\".\"RATING_ID\" > ?2)")).isNull();
+    }
+
+    private static String problemOf(String plan) {
+        if (FULL_SCAN.matcher(plan).find()) {
+            return "FULL SCAN";
+        }
+        Set<String> seeks = new LinkedHashSet<>();
+        Matcher condition = INDEX_CONDITION.matcher(plan);
+        while (condition.find()) {
+            addParameters(condition.group(1), seeks);
+        }
+        Set<String> filters = new LinkedHashSet<>();
+        Matcher equality = EQUALITY.matcher(plan);
+        while (equality.find()) {
+            addParameters(equality.group(1), filters);
+        }
+        filters.removeAll(seeks);
+        return filters.isEmpty() ? null : "FILTER WITHOUT INDEX on " + filters;
+    }
+
+    private static void addParameters(String text, Set<String> parameters) {
+        Matcher parameter = PARAMETER.matcher(text);
+        while (parameter.find()) {
+            parameters.add(parameter.group());
+        }
+    }
+
+    private static List<String> statementsOf(TransactionTemplate transactionTemplate, Object repository, Method method) {
+        statements.clear();
+        recording = true;
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try {
+                    Object result = method.invoke(repository, sampleArguments(method));
+                    if (result instanceof Stream) {
+                        // the query of a stream only runs once a row is asked for
+                        try (Stream<?> stream = (Stream<?>) result) {
+                            stream.findFirst();
+                        }
+                    }
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    throw new IllegalStateException("Unable to call " + method, e);
+                }
+            });
+        } finally {
+            recording = false;
+        }
+        return new ArrayList<>(statements);
+    }
+
+    private static Object[] sampleArguments(Method method) {
+        Type[] types = method.getGenericParameterTypes();
+        Object[] arguments = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            arguments[i] = sample(types[i]);
+        }
+        return arguments;
+    }
+
+    private static Object sample(Type type) {
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            if (Collection.class.isAssignableFrom((Class<?>) parameterized.getRawType())) {
+                return List.of(sample(parameterized.getActualTypeArguments()[0]));
+            }
+            return null;
+        }
+        if (type == Long.class || type == long.class) {
+            return 1L;
+        }
+        if (type == Integer.class || type == int.class) {
+            return 1;
+        }
+        if (type == Double.class || type == double.class) {
+            return 1.0;
+        }
+        if (type == String.class) {
+            return "a";
+        }
+        if (type == Pageable.class) {
+            return PageRequest.of(0, 1);
+        }
+        return null;
+    }
+}
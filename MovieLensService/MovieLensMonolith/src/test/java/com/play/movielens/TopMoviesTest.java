@@ -0,0 +1,95 @@
+package com.play.movielens;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.contains;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * /movies/top by genre over movies of several genres, stored the way the movie loader stores them: movie_genres
+ * joined with commas and one MovieGenre row per genre. Every genre of a movie gets it into the list of that genre.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:top;DB_CLOSE_DELAY=-1",
+        "spring.sql.init.schema-locations=classpath:loader-tables.sql",
+        "spring.cache.type=none",
+        "movielens.dataset.checkCron=-",
+        "movielens.tags.suggest.refreshCron=-",
+        "movielens.recommendations.buildOnStartup=false",
+        "movielens.recommendations.modelFile=target/top/item-neighbours.bin",
+        "movielens.predict.factorFile=target/top/als-factors.bin",
+        "movielens.top.priorVotes=0"})
+@AutoConfigureMockMvc
+class TopMoviesTest {
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private MovieCatalog movieCatalog;
+    @Autowired
+    private TopMovies topMovies;
+    @Autowired
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void load() {
+        jdbcTemplate.execute("DELETE FROM MovieGenre");
+        jdbcTemplate.execute("DELETE FROM Genre");
+        jdbcTemplate.execute("DELETE FROM MovieRatingStats");
+        jdbcTemplate.execute("DELETE FROM Movie");
+        // movie_id, title, genres as written by the loader, and the mean rating of 100 votes
+        Object[][] movies = {
+                {6L, "Heat", "Action,Crime,Thriller", 3.0},
+                {7L, "Sabrina", "Comedy,Romance", 4.0},
+                {1L, "Toy Story", "Adventure,Animation,Children,Comedy,Fantasy", 4.5},
+                {39L, "Clueless", "Comedy,Romance", 3.5},
+                {17L, "Sense and Sensibility", "Drama,Romance", 5.0}};
+        String[] genres = {"Action", "Crime", "Thriller", "Comedy", "Romance", "Adventure", "Animation", "Children",
+                "Fantasy", "Drama"};
+        for (int genre = 0; genre < genres.length; genre++) {
+            jdbcTemplate.update("INSERT INTO Genre (genre_id, genre_name) VALUES (?, ?)", genre + 1, genres[genre]);
+        }
+        for (Object[] movie : movies) {
+            jdbcTemplate.update("INSERT INTO Movie (movie_id, movie_title, movie_year, movie_genres) VALUES (?, ?, 1995, ?)",
+                    movie[0], movie[1], movie[2]);
+            for (String genre : ((String) movie[2]).split(",")) {
+                jdbcTemplate.update("INSERT INTO MovieGenre (genre_id, movie_id) SELECT genre_id, ? FROM Genre WHERE genre_name = ?",
+                        movie[0], genre);
+            }
+            jdbcTemplate.update("INSERT INTO MovieRatingStats (movie_id, rating_count, half_star_sum) VALUES (?, 100, ?)",
+                    movie[0], Math.round((Double) movie[3] * 2 * 100));
+        }
+        movieCatalog.reload();
+        topMovies.refresh();
+    }
+
+    @Test
+    void listsAMovieUnderEachOfItsGenres() throws Exception {
+        mockMvc.perform(get("/movies/top").param("genre", "Romance"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].movie.movieId", contains(17, 7, 39)));
+        mockMvc.perform(get("/movies/top").param("genre", "comedy"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].movie.movieId", contains(1, 7, 39)));
+        mockMvc.perform(get("/movies/top").param("genre", "Thriller"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].movie.movieId", contains(6)));
+    }
+
+    @Test
+    void listsAMovieUnderEachOfItsGenresByDecade() throws Exception {
+        mockMvc.perform(get("/movies/top").param("genre", "Comedy").param("yearFrom", "1990").param("yearTo", "1999"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].movie.movieId", contains(1, 7, 39)));
+        mockMvc.perform(get("/movies/top").param("n", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].movie.movieId", contains(17, 1)));
+    }
+}
@@ -0,0 +1,14 @@
+-- The tables of the movie loader that the service only reads with SQL, Genre and MovieGenre, as LoadMovies creates
+-- them; Hibernate creates the tables of the entities of the service.
+CREATE TABLE IF NOT EXISTS Genre (
+    genre_id INTEGER PRIMARY KEY,
+    genre_name VARCHAR_IGNORECASE(255),
+    CONSTRAINT UX_GENRE_NAME UNIQUE (genre_name)
+);
+
+CREATE TABLE IF NOT EXISTS MovieGenre (
+    genre_id INTEGER,
+    movie_id BIGINT,
+    PRIMARY KEY (genre_id, movie_id)
+);
+CREATE INDEX IF NOT EXISTS IDX_MOVIE_GENRE_MOVIE ON MovieGenre(movie_id);